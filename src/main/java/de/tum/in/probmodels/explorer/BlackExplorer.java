@@ -1,27 +1,61 @@
 package de.tum.in.probmodels.explorer;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
 import de.tum.in.probmodels.generator.Choice;
 import de.tum.in.probmodels.generator.Generator;
+import de.tum.in.probmodels.graph.CompactMec;
+import de.tum.in.probmodels.graph.IncrementalSccDecomposition;
 import de.tum.in.probmodels.graph.Mec;
 import de.tum.in.probmodels.model.*;
+import de.tum.in.probmodels.util.CancellationToken;
 import de.tum.in.probmodels.util.Sample;
+import de.tum.in.probmodels.util.StateCodec;
 import de.tum.in.probmodels.util.Util;
+import de.tum.in.probmodels.util.VarInts;
 import it.unimi.dsi.fastutil.ints.*;
 import it.unimi.dsi.fastutil.objects.*;
 import prism.Pair;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Class to facilitate black box exploration. It keeps hold of counts for how many times each state-action-triplet is
  * sampled and accordingly maintains learned distributions.
+ *
+ * The learned model, i.e. the model passed on construction and returned by {@link #model()}, always holds all actions.
+ * While the action count filter is active, the public methods taking or returning action indices (getChoices,
+ * getActions, getActionCounts, sampleNextAction, simulateAction, updateCounts, the MEC simulations and so on) use the
+ * indices of {@link #filteredModel()} instead, so MECs have to be computed on that model. Protected methods with an
+ * originalActionIndex parameter always take the index in the learned model.
  * @param <S>
  * @param <M>
  */
 public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
+  private static final int CHECKPOINT_MAGIC = 0x50424558;
+  private static final int CHECKPOINT_VERSION = 1;
+
   // A mapping to and from state numbers in partial model to state object in generator.
   protected final StateToIndex<S> stateMap = new StateToIndex<>();
   // All states which are in the partial model and explored
@@ -30,20 +64,25 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
   protected final Generator<S> generator;
   protected final boolean removeSelfLoops;
   protected final long timeout;
+  // Cancelled once the timeout has passed or an external token passed to setCancellationToken is cancelled
+  private CancellationToken cancellation;
 
-  // This holds the counts for haw many times every state-action-successor triplet has been sampled. They can be accessed
-  // by first using the stateIndex and then the actionIndex as keys.
-  protected final Int2ObjectMap<ObjectArrayList<Int2LongMap>> stateTransitionCounts = new Int2ObjectOpenHashMap<>();
+  // This holds the counts for how many times every state-action-successor triplet has been sampled, indexed by the
+  // stateIndex and the original (unfiltered) actionIndex.
+  protected final TransitionCounts stateTransitionCounts = new TransitionCounts();
   // This holds the real set of actions for the model. Successors are sampled using these distributions.
   protected final Int2ObjectMap<ObjectArrayList<Action>> stateActions = new Int2ObjectOpenHashMap<>();
 
-  // This holds all the actions of the model regardless of whether they pass the actionCountFilter. They are used to
-  // restore the original set of actions after deactivateActionCountFilter() is called.
-  private final Int2ObjectMap<List<Action>> unfilteredActionsCache = new Int2ObjectOpenHashMap<>();
-
-  // This holds a mapping from the indices of actions in the filtered model to the indices in the filtered model.
-  // This helps during to update counts when the model is filtered.
-  protected final Int2ObjectMap<Int2IntMap> unfilteredActionIndexMap = new Int2ObjectOpenHashMap<>();
+  // The model always holds all learned actions. This marks the state-actions (numbered as in stateTransitionCounts)
+  // passing the action count filter, it is updated whenever counts change. While the filter is active, filterView
+  // exposes only these actions, so toggling the filter does not touch the model.
+  private final NatBitSet passingActions = NatBitSets.set();
+  private final ActionFilterView<M> filterView;
+  // Changes of passingActions are postponed while the filter is active, as they would shift the filtered action
+  // indices. Holds the affected (state, original action) pairs.
+  private final IntList pendingFilterUpdates = new IntArrayList();
+  // Set if passingActions has to be recomputed completely, e.g. after a change of actionCountFilter.
+  private boolean passingActionsStale = false;
 
   protected int exploredActionsCount = 0;
   protected boolean actionCountFilterActive = false;
@@ -51,7 +90,22 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
 
   protected int numTrans = 0;
 
-  public Int2ObjectMap<ObjectArrayList<Int2LongMap>> getStateTransitionCounts() {
+  // SCCs of the learned graph, updated whenever a new transition is sampled. Null unless requested through
+  // trackComponents.
+  private IncrementalSccDecomposition componentTracker = null;
+
+  // If set, learned distributions are not rebuilt on every sample. Instead, the sampled state-action pairs are marked
+  // and their distributions are rebuilt once the state is read through getActions / getChoices or on a flush.
+  private boolean deferDistributionUpdates = false;
+  // Per state, the original indices of the actions with pending updates.
+  private final Int2ObjectMap<IntSet> dirtyActions = new Int2ObjectOpenHashMap<>();
+
+  // Writes periodic checkpoints in the background. Null if checkpointing is disabled.
+  private CheckpointWriter checkpointWriter = null;
+  private TraceWriter traceWriter = null;
+  private StateCodec<S> checkpointCodec = null;
+
+  public TransitionCounts getStateTransitionCounts() {
     return stateTransitionCounts;
   }
 
@@ -65,6 +119,9 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
     this.generator = generator;
     this.removeSelfLoops = removeSelfLoops;
     this.timeout = timeout;
+    this.cancellation = CancellationToken.withDeadline(timeout);
+    this.filterView = new ActionFilterView<>(model,
+        (state, action) -> passingActions.contains(stateTransitionCounts.stateActionIndex(state, action)));
 
     initializeVars();
     IntList initialStateIds = new IntArrayList();
@@ -85,11 +142,27 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
     return IntSets.unmodifiable(exploredStates);
   }
 
+  /**
+   * Returns the learned model with all actions, regardless of the action count filter. Its action indices are the
+   * original ones, which differ from the indices used by this explorer while the filter is active, see
+   * {@link #filteredModel()}.
+   */
   @Override
   public M model() {
+    flushDistributions();
     return model;
   }
 
+  /**
+   * Returns the learned model, restricted to the actions passing the action count filter while it is active. Action
+   * indices passed to and returned by this explorer refer to this model. While the filter is active, this is a
+   * read-only view of {@link #model()}.
+   */
+  public Model filteredModel() {
+    flushDistributions();
+    return actionCountFilterActive ? filterView : model;
+  }
+
   public int getNumExploredActions(){
     return exploredActionsCount;
   }
@@ -102,7 +175,19 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
    * Updates to actionCountFilter according to mecConfidence and pMin.
    */
   public void updateCountParams(double mecConfidence, double pMin){
-    this.actionCountFilter = Math.log(mecConfidence)/Math.log(1-pMin);
+    setActionCountFilter(Math.log(mecConfidence)/Math.log(1-pMin));
+  }
+
+  private void setActionCountFilter(double actionCountFilter) {
+    if (this.actionCountFilter == actionCountFilter) {
+      return;
+    }
+    this.actionCountFilter = actionCountFilter;
+    if (actionCountFilterActive) {
+      passingActionsStale = true;
+    } else {
+      recomputePassingActions();
+    }
   }
 
 
@@ -111,58 +196,85 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
    * immediately updated. Returns whether a new action has been sampled more than actionCountFilter number of times.
    */
   public boolean updateCounts(int state, int actionIndex, int successor){
-    int originalActionIndex;
-    originalActionIndex = actionCountFilterActive ? unfilteredActionIndexMap.get(state).get(actionIndex) : actionIndex;
+    int originalActionIndex = originalActionIndex(state, actionIndex);
 
-    long newTransitionCount = incrementTransitionCount(state, originalActionIndex, successor);
-    updateStateActionDistributionInModel(state, actionIndex, originalActionIndex);
+    incrementTransitionCount(state, originalActionIndex, successor);
+    updateOrMarkDistribution(state, originalActionIndex);
+    updateActionFilter(state, originalActionIndex);
+    recordTransition(state, originalActionIndex, successor);
 
     boolean newTrans = false;
 
-    if (newTransitionCount == 1){
-      numTrans++;
-    }
-
     long actionCount = getActionCounts(state, actionIndex);
     if(actionCount>actionCountFilter && actionCount-1<=actionCountFilter){
       newTrans = true;
     }
 
+    checkpointIfDue();
     return newTrans;
   }
 
+  /**
+   * Starts maintaining the SCCs of the learned graph, i.e. of all sampled transitions regardless of the action count
+   * filter, and returns them. Each newly sampled transition is added as an edge by {@link #onNewTransition(int, int)}, so instead of decomposing the whole
+   * model periodically, callers only have to check the SCCs reported by {@link IncrementalSccDecomposition#pollMerged()}
+   * for new end components.
+   */
+  public IncrementalSccDecomposition trackComponents() {
+    if (componentTracker == null) {
+      componentTracker = new IncrementalSccDecomposition();
+      addTransitionsToTracker();
+    }
+    return componentTracker;
+  }
+
+  // Adds all sampled transitions to the tracker, already known ones are ignored
+  private void addTransitionsToTracker() {
+    IncrementalSccDecomposition tracker = componentTracker;
+    for (int state : exploredStates) {
+      tracker.addState(state);
+      for (int action = 0; action < stateTransitionCounts.actions(state); action++) {
+        stateTransitionCounts.forEach(state, action, (successor, count) -> tracker.addEdge(state, successor));
+      }
+    }
+  }
+
   /**
    * @return Returns the number of times a state action pair has been sampled.
    */
   public long getActionCounts(int stateId, int actionIndex){
-    if (actionCountFilterActive) {
-      actionIndex = unfilteredActionIndexMap.get(stateId).get(actionIndex);
-    }
-    Int2LongMap transitionCounts = stateTransitionCounts.get(stateId).get(actionIndex);
-    return transitionCounts.values().stream().mapToLong(s -> s).sum();
+    return stateTransitionCounts.total(stateId, originalActionIndex(stateId, actionIndex));
+  }
+
+  /**
+   * @return the index of the given action in the unfiltered model.
+   */
+  protected int originalActionIndex(int stateId, int actionIndex) {
+    return actionCountFilterActive ? filterView.originalIndex(stateId, actionIndex) : actionIndex;
   }
 
   /**
    * @return Returns the distribution of an action for a state from the transitionCounts.
+   * @param originalActionIndex: index of the action in the unfiltered model.
    */
-  protected Distribution getDistributionFromCounts(int stateId, Int2LongMap transitionCounts){
+  protected Distribution getDistributionFromCounts(int stateId, int originalActionIndex){
 
-    double actionCounts = transitionCounts.values().stream().mapToLong(s -> s).sum();
+    double actionCounts = stateTransitionCounts.total(stateId, originalActionIndex);
 
     DistributionBuilder builder = Distributions.defaultBuilder();
 
-    boolean skippedAny = false;
-    for (int target : transitionCounts.keySet()) {
-      double probability = transitionCounts.get(target) / actionCounts;
+    boolean[] skippedAny = {false};
+    stateTransitionCounts.forEach(stateId, originalActionIndex, (target, count) -> {
+      double probability = count / actionCounts;
       if (removeSelfLoops && target == stateId) {
-        skippedAny = true;
+        skippedAny[0] = true;
       } else {
         builder.add(target, probability);
       }
-    }
+    });
 
     // scale the distribution if any values in the original support were skipped
-    Distribution distribution = skippedAny ? builder.scaled() : builder.build();
+    Distribution distribution = skippedAny[0] ? builder.scaled() : builder.build();
     assert distribution.isEmpty() || Util.isOne(distribution.sum()) : distribution;
     return distribution;
 
@@ -177,7 +289,6 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
     S state = stateMap.getState(stateId);
     assert state != null;
 
-    ObjectArrayList<Int2LongMap> stateActionCounts = new ObjectArrayList<>();
     ObjectArrayList<Action> stateChoices = new ObjectArrayList<>();
 
     for (Choice<S> choice : generator.choices(state)) {
@@ -199,16 +310,17 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
       // Real distribution added to stateChoices
       stateChoices.add(Action.of(distribution, choice.label()));
 
-      Int2LongMap actionCounts = new Int2LongOpenHashMap();
-      stateActionCounts.add(actionCounts);
-
       // Empty distribution added to model
       DistributionBuilder emptyBuilder = Distributions.defaultBuilder();
       model.addChoice(stateId, Action.of(emptyBuilder.build(), choice.label()));
     }
 
-    stateTransitionCounts.put(stateId, stateActionCounts);
+    stateTransitionCounts.addState(stateId, stateChoices);
     stateActions.put(stateId, stateChoices);
+    for (int i = 0; i < stateChoices.size(); i++) {
+      updateActionFilter(stateId, i);
+    }
+    recordExploration(stateId);
 
     exploredActionsCount += stateChoices.size();
 
@@ -220,11 +332,12 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
    * @return Returns the index of the sampled action corresponding to the choices in the model variable.
    */
   public int sampleNextAction(int stateId){
-    int[] choiceIndices = new int[model.getNumChoices(stateId)];
-    for (int i = 0; i < model.getNumChoices(stateId); i++) {
+    int numChoices = actionCountFilterActive ? filterView.getNumChoices(stateId) : model.getNumChoices(stateId);
+    int[] choiceIndices = new int[numChoices];
+    for (int i = 0; i < numChoices; i++) {
       choiceIndices[i] = i;
     }
-    return Sample.sampleUniform(choiceIndices, model.getNumChoices(stateId));
+    return Sample.sampleUniform(choiceIndices, numChoices);
   }
 
   /**
@@ -233,39 +346,22 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
    * @return StateID of the sampled successor state.
    */
   public int simulateAction(int stateId, int actionIndex){
-    if (actionCountFilterActive) {
-      actionIndex = unfilteredActionIndexMap.get(stateId).get(actionIndex);
-    }
-    Action action = stateActions.get(stateId).get(actionIndex);
+    Action action = stateActions.get(stateId).get(originalActionIndex(stateId, actionIndex));
     return action.distribution().sample();
   }
 
   public void simulateActionRepeatedly(int stateId, int filteredIndex, double requiredSamples){
-    int realIndex = filteredIndex;
-    if (actionCountFilterActive) {
-      realIndex = unfilteredActionIndexMap.get(stateId).get(filteredIndex);
-    }
+    int realIndex = originalActionIndex(stateId, filteredIndex);
     Action action = stateActions.get(stateId).get(realIndex);
-    long actionCounts = getActionCounts(stateId, realIndex);
-    Int2IntMap actionTransitionCounts = new Int2IntOpenHashMap();
-    for(int succ: action.distribution().support()) {
-      actionTransitionCounts.put(succ, 0);
-    }
+    long actionCounts = stateTransitionCounts.total(stateId, realIndex);
     while (actionCounts<requiredSamples) {
       int succ = action.distribution().sample();
-      actionTransitionCounts.put(succ, actionTransitionCounts.get(succ)+1);
+      incrementTransitionCount(stateId, realIndex, succ);
+      recordTransition(stateId, realIndex, succ);
       actionCounts++;
     }
-    for(int succ: action.distribution().support()) {
-      long currValue = stateTransitionCounts.get(stateId).get(realIndex).get(succ);
-      stateTransitionCounts.get(stateId).get(realIndex)
-              .put(succ, currValue+actionTransitionCounts.get(succ));
-    }
-    List<Action> currActions = model.getActions(stateId);
-    Distribution distribution = getDistributionFromCounts(stateId, stateTransitionCounts.get(stateId).get(realIndex));
-    currActions.set(filteredIndex, Action.of(distribution, action.label()));
-
-    model.setActions(stateId, currActions);
+    updateOrMarkDistribution(stateId, realIndex);
+    updateActionFilter(stateId, realIndex);
   }
 
   /**
@@ -275,7 +371,7 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
   public void simulateMECRepeatedly1(Mec mec, double requiredSamples) {
     for(int state: mec.actions.keySet()) {
       for(int actionInd: mec.actions.get(state)) {
-        if (model().getChoice(state, actionInd).size()<2) {
+        if (getChoices(state).get(actionInd).size()<2) {
           continue;
         }
         simulateActionRepeatedly(state, actionInd, requiredSamples);
@@ -296,25 +392,20 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
     }
     double nSimulations = Math.min(1e8, requiredSamples * nTransitions);
 
-    // Actions stored in Mec are of type set. To choose a random element, we convert them to list actions and pick
-    // random elements from them.
-    Int2ObjectMap<List<Integer>> listActions = new Int2ObjectOpenHashMap<>(mec.states.size());
-    for (int state : mec.states) {
-      List<Integer> stateActionsList = mec.actions.get(state).stream().mapToInt(x -> x).boxed().collect(Collectors.toList());
-      listActions.put(state, stateActionsList);
-    }
-
+    // The flat layout allows choosing a random action in constant time
+    CompactMec compact = mec.compact();
     int simulationCount = 0;
-    int currentState = mec.states.firstInt();
-    Random random = new Random();
+    int currentIndex = 0;
+    SplittableRandom random = new SplittableRandom();
 
     while (simulationCount < nSimulations && !isTimeout()) {
-      List<Integer> intActions = listActions.get(currentState);
-      int actionIndex = intActions.get(random.nextInt(intActions.size()));
-      int originalActionIndex = unfilteredActionIndexMap.get(currentState).get(actionIndex);
+      int currentState = compact.state(currentIndex);
+      int actionIndex = compact.randomAction(currentIndex, random);
+      int originalActionIndex = originalActionIndex(currentState, actionIndex);
       int successor = stateActions.get(currentState).get(originalActionIndex).distribution().sample();
       onSimulationStep(currentState, actionIndex, originalActionIndex, successor);
-      currentState = successor;
+      // Successors outside the MEC have not been seen when the MEC was computed, restart the walk in this case
+      currentIndex = Math.max(compact.indexOf(successor), 0);
       simulationCount++;
     }
 
@@ -326,62 +417,214 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
    * chosen randomly.
    */
   public void simulateMECRepeatedly3(Mec mec, double requiredSamples, int nTransitions) {
+    simulateMECRepeatedly3(mec, requiredSamples, nTransitions, false);
+  }
+
+  /**
+   * We simulate MEC truly, until all the state-action pairs has been visited requiredSample number of times. The visit
+   * counts are tracked in an indexed min-heap, so the least visited pair is known after every step. If steer is true,
+   * actions are chosen such that the walk heads towards under-sampled pairs (see {@link LeastVisitedSteering}),
+   * otherwise they are chosen randomly.
+   */
+  public void simulateMECRepeatedly3(Mec mec, double requiredSamples, int nTransitions, boolean steer) {
     // If there is only one transition in the MEC, then no need for simulation
     if (nTransitions <= 1) {
       return;
     }
 
-    // Actions stored in Mec are of type set. To choose a random element, we convert them to list actions and pick
-    // random elements from them.
-    Int2ObjectMap<List<Integer>> listActions = new Int2ObjectOpenHashMap<>(mec.states.size());
-    for (int state : mec.states) {
-      List<Integer> stateActionsList = mec.actions.get(state).stream().mapToInt(x -> x).boxed().collect(Collectors.toList());
-      listActions.put(state, stateActionsList);
+    MecWalk walk = createMecWalk(mec);
+    long[] initialCounts = new long[walk.stateActionCount()];
+    for (int i = 0; i < walk.stateCount(); i++) {
+      for (int stateAction = walk.actionOffsets[i]; stateAction < walk.actionOffsets[i + 1]; stateAction++) {
+        initialCounts[stateAction] = stateTransitionCounts.total(walk.states[i], walk.originalActions[stateAction]);
+      }
     }
-
-    int currentState = mec.states.firstInt();
-    Random random = new Random();
-
-    Pair<Integer, Integer> leastStateAction = getLeastVisitedStateAction(mec);
-    int leastVisitedState = leastStateAction.first;
-    int leastVisitedAction = leastStateAction.second;
+    VisitCountHeap visits = new VisitCountHeap(initialCounts);
+    LeastVisitedSteering steering = steer ? new LeastVisitedSteering(walk) : null;
+    SplittableRandom random = new SplittableRandom();
+    int currentState = 0;
 
     // We terminate the simulation if lest visited state action pair in Mec is at least visited requiredSamples number of times
-    boolean runSimulation = getActionCounts(leastVisitedState, leastVisitedAction) < requiredSamples;
-
-    while (runSimulation && !isTimeout()) {
-      List<Integer> intActions = listActions.get(currentState);
-      int actionIndex = intActions.get(random.nextInt(intActions.size()));
-      int originalActionIndex = unfilteredActionIndexMap.get(currentState).get(actionIndex);
-      int successor = stateActions.get(currentState).get(originalActionIndex).distribution().sample();
-      onSimulationStep(currentState, actionIndex, originalActionIndex, successor);
-      currentState = successor;
-
-      long leastStateActionCounts = getActionCounts(leastVisitedState, leastVisitedAction);
-
-      if (leastStateActionCounts >= requiredSamples) {
-        leastStateAction = getLeastVisitedStateAction(mec);
-        leastVisitedState = leastStateAction.first;
-        leastVisitedAction = leastStateAction.second;
-        leastStateActionCounts = getActionCounts(leastVisitedState, leastVisitedAction);
-      }
-
-      runSimulation = leastStateActionCounts < requiredSamples;
+    while (visits.minCount() < requiredSamples && !isTimeout()) {
+      int stateAction = steering == null
+          ? walk.sampleAction(currentState, random)
+          : steering.chooseAction(currentState, visits, requiredSamples, random);
+      int transition = walk.sampleTransition(stateAction, random);
+      assert transition != -1;
+      onSimulationStep(walk.states[currentState], walk.modelActions[stateAction], walk.originalActions[stateAction],
+          walk.successors[transition]);
+      visits.increment(stateAction);
+      // Successors outside the MEC have not been seen when the MEC was computed, restart the walk in this case
+      int successor = walk.localSuccessors[transition];
+      currentState = successor == -1 ? 0 : successor;
     }
 
     onSimulationEnded(mec);
   }
 
+  private MecWalk createMecWalk(Mec mec) {
+    return MecWalk.create(mec, this::originalActionIndex, stateActions::get);
+  }
+
   protected void onSimulationStep(int state, int actionIndex, int originalActionIndex, int successor) {
     incrementTransitionCount(state, originalActionIndex, successor);
+    updateActionFilter(state, originalActionIndex);
+    recordTransition(state, originalActionIndex, successor);
+    checkpointIfDue();
   }
 
   protected void onSimulationEnded(Mec mec) {
     // We update the distribution as per the counts
     for (int state : mec.states) {
       for (int action : mec.actions.get(state)) {
-        int originalActionIndex = unfilteredActionIndexMap.get(state).get(action);
-        updateStateActionDistributionInModel(state, action, originalActionIndex);
+        updateOrMarkDistribution(state, originalActionIndex(state, action));
+      }
+    }
+  }
+
+  /**
+   * Like {@link #simulateMECRepeatedly3(Mec, double, int)}, but simulates independent random walks on several threads.
+   * Each walk has its own random number generator and counts its samples locally. The local counts are merged in
+   * rounds, after which the termination criterion and the timeout are checked. Walks which leave the MEC (through a
+   * successor not yet seen when the MEC was computed) restart in their initial state.
+   *
+   * Per-step hooks are replaced by {@link SimulationWorker}, which subclasses may extend through
+   * {@link #createSimulationWorker(MecWalk, SplittableRandom, int)}. {@link #onSimulationEnded(Mec)} is called as usual.
+   */
+  public void simulateMECParallel(Mec mec, double requiredSamples, int nTransitions, int threads) {
+    checkArgument(threads > 0, "Need at least one thread, got %s", threads);
+    // If there is only one transition in the MEC, then no need for simulation
+    if (nTransitions <= 1) {
+      return;
+    }
+
+    MecWalk walk = createMecWalk(mec);
+    // Every round should take long enough to amortize the synchronization, but not overshoot the target too much
+    long roundSteps = (long) Math.min(1 << 20, Math.max(1024, requiredSamples * nTransitions / threads));
+
+    SplittableRandom seed = new SplittableRandom();
+    List<SimulationWorker> workers = new ArrayList<>(threads);
+    for (int i = 0; i < threads; i++) {
+      workers.add(createSimulationWorker(walk, seed.split(), i % walk.stateCount()));
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "mec-simulation");
+      thread.setDaemon(true);
+      return thread;
+    });
+    try {
+      // Rounds are long, so always read the clock here
+      while (getLeastActionCount(walk) < requiredSamples && !cancellation.checkNow()) {
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for (SimulationWorker worker : workers) {
+          futures.add(executor.submit(() -> worker.run(roundSteps)));
+        }
+        for (Future<?> future : futures) {
+          future.get();
+        }
+        for (SimulationWorker worker : workers) {
+          worker.merge();
+        }
+        checkpointIfDue();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during simulation", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    onSimulationEnded(mec);
+  }
+
+  private long getLeastActionCount(MecWalk walk) {
+    long minValue = Long.MAX_VALUE;
+    for (int i = 0; i < walk.stateCount(); i++) {
+      int state = walk.states[i];
+      for (int stateAction = walk.actionOffsets[i]; stateAction < walk.actionOffsets[i + 1]; stateAction++) {
+        minValue = Math.min(minValue, stateTransitionCounts.total(state, walk.originalActions[stateAction]));
+      }
+    }
+    return minValue;
+  }
+
+  /**
+   * Creates the per-thread state of {@link #simulateMECParallel(Mec, double, int, int)}.
+   */
+  SimulationWorker createSimulationWorker(MecWalk walk, SplittableRandom random, int initialState) {
+    return new SimulationWorker(walk, random, initialState);
+  }
+
+  /**
+   * A single random walk of a parallel MEC simulation. {@link #run(long)} is executed on a simulation thread and must
+   * only touch the state of the worker, {@link #merge()} is called on the thread owning the explorer.
+   */
+  class SimulationWorker {
+    protected final MecWalk walk;
+    protected final SplittableRandom random;
+    private final int initialState;
+    // Per transition of the walk: samples since the last merge
+    private final long[] counts;
+    private int currentState;
+
+    SimulationWorker(MecWalk walk, SplittableRandom random, int initialState) {
+      this.walk = walk;
+      this.random = random;
+      this.initialState = initialState;
+      this.currentState = initialState;
+      this.counts = new long[walk.transitionCount()];
+    }
+
+    void run(long steps) {
+      for (long step = 0; step < steps; step++) {
+        int stateAction = walk.sampleAction(currentState, random);
+        int transition = walk.sampleTransition(stateAction, random);
+        if (transition == -1) {
+          continue;
+        }
+        counts[transition] += 1;
+        onStep(stateAction, transition);
+        int successor = walk.localSuccessors[transition];
+        currentState = successor == -1 ? initialState : successor;
+      }
+    }
+
+    /**
+     * Called on the simulation thread for every sampled transition.
+     */
+    protected void onStep(int stateAction, int transition) {
+      // Empty
+    }
+
+    /**
+     * Adds the local data to the explorer and resets it.
+     */
+    protected void merge() {
+      for (int i = 0; i < walk.stateCount(); i++) {
+        int state = walk.states[i];
+        for (int stateAction = walk.actionOffsets[i]; stateAction < walk.actionOffsets[i + 1]; stateAction++) {
+          int originalAction = walk.originalActions[stateAction];
+          for (int transition = walk.transitionOffsets[stateAction];
+               transition < walk.transitionOffsets[stateAction + 1]; transition++) {
+            long count = counts[transition];
+            if (count > 0) {
+              addTransitionCount(state, originalAction, walk.successors[transition], count);
+              recordCount(state, originalAction, walk.successors[transition], count);
+              counts[transition] = 0;
+            }
+          }
+          updateActionFilter(state, originalAction);
+        }
       }
     }
   }
@@ -395,6 +638,7 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
       for (int action : mec.actions.get(state)) {
         long counts = getActionCounts(state, action);
         if (counts < minValue) {
+          minValue = counts;
           minVisitedState = state;
           minVisitedAction = action;
         }
@@ -405,32 +649,73 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
   }
 
   /**
-   * Activates the action count filter. Updates the model variable to hold only those actions that pass the actionCountFilter.
-   * Caches to original action for later use.
+   * Activates the action count filter. Afterwards, the explorer only exposes those actions that pass the
+   * actionCountFilter, see {@link #filteredModel()}. The set of these actions is maintained incrementally, so this
+   * does not copy anything.
    *
    * For grey box, we only keep actions that has all of its successors visited
    */
   public void activateActionCountFilter(){
-
-    for (int i: exploredStates) {
-      unfilteredActionsCache.put(i, model.getActions(i));
-      model.setActions(i, filterActions(i));
+    if (passingActionsStale) {
+      recomputePassingActions();
     }
     actionCountFilterActive = true;
   }
 
   /**
-   * Deactivates the action count filter. Updates the model variable to hold the original set of actions.
+   * Deactivates the action count filter. Afterwards, the explorer exposes all actions again.
    */
   public void deactivateActionCountFilter(){
     actionCountFilterActive = false;
 
-    for (int i: exploredStates){
-      model.setActions(i, unfilteredActionsCache.get(i));
+    if (passingActionsStale) {
+      recomputePassingActions();
+    } else {
+      for (int i = 0; i < pendingFilterUpdates.size(); i += 2) {
+        updateActionFilter(pendingFilterUpdates.getInt(i), pendingFilterUpdates.getInt(i + 1));
+      }
+    }
+    pendingFilterUpdates.clear();
+  }
+
+  /**
+   * Whether the given action passes the action count filter.
+   * @param originalActionIndex: index of the action in the unfiltered model.
+   */
+  protected boolean passesActionFilter(int stateId, int originalActionIndex) {
+    return stateTransitionCounts.total(stateId, originalActionIndex) > actionCountFilter;
+  }
+
+  /**
+   * Re-evaluates whether the given action passes the action count filter. Has to be called whenever the counts of
+   * the action change.
+   */
+  protected void updateActionFilter(int stateId, int originalActionIndex) {
+    int stateAction = stateTransitionCounts.stateActionIndex(stateId, originalActionIndex);
+    boolean passes = passesActionFilter(stateId, originalActionIndex);
+    if (passes == passingActions.contains(stateAction)) {
+      return;
+    }
+    if (actionCountFilterActive) {
+      pendingFilterUpdates.add(stateId);
+      pendingFilterUpdates.add(originalActionIndex);
+    } else {
+      passingActions.set(stateAction, passes);
+      filterView.invalidate(stateId);
     }
+  }
 
-    unfilteredActionsCache.clear();
-    unfilteredActionIndexMap.clear();
+  private void recomputePassingActions() {
+    passingActions.clear();
+    filterView.invalidateAll();
+    for (int state : exploredStates) {
+      for (int action = 0; action < stateTransitionCounts.actions(state); action++) {
+        if (passesActionFilter(state, action)) {
+          passingActions.set(stateTransitionCounts.stateActionIndex(state, action));
+        }
+      }
+    }
+    passingActionsStale = false;
   }
 
   @Override
@@ -473,34 +758,30 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
   public List<Distribution> getChoices(int stateId) {
     assert isExploredState(stateId);
 
-    return model.getChoices(stateId);
+    flushDistributions(stateId);
+    return actionCountFilterActive ? filterView.getChoices(stateId) : model.getChoices(stateId);
   }
 
   /**
    * Returns a list of actions for a state. If actionCountFilter is active, only those actions are added which have been
-   * sampled more than actionCountFilter number of times. unfilteredActionIndexMap is also populated.
+   * sampled more than actionCountFilter number of times.
    * @return a list of actions.
    */
   @Override
   public List<Action> getActions(int stateId) {
     assert isExploredState(stateId);
 
-    return model.getActions(stateId);
+    flushDistributions(stateId);
+    return actionCountFilterActive ? filterView.getActions(stateId) : model.getActions(stateId);
   }
 
+  /**
+   * @return the actions of the state which currently pass the action count filter, regardless of whether the filter
+   * is active.
+   */
   public List<Action> filterActions(int stateId) {
-    List<Action> actions = model.getActions(stateId);
-    List<Action> finalActions = new ArrayList<>();
-    unfilteredActionIndexMap.put(stateId, new Int2IntOpenHashMap());
-
-    for (int i = 0; i < actions.size(); i++) {
-      if(getActionCounts(stateId, i) > actionCountFilter){
-        unfilteredActionIndexMap.get(stateId).put(finalActions.size(), i);
-        finalActions.add(actions.get(i));
-      }
-    }
-
-    return finalActions;
+    flushDistributions(stateId);
+    return filterView.getActions(stateId);
   }
 
   @Override
@@ -514,27 +795,390 @@ public class BlackExplorer<S, M extends Model> implements Explorer<S, M>{
             removeSelfLoops ? "inline" : "normal");
   }
 
-  private long incrementTransitionCount(int state, int actionIndex, int successor) {
-    Int2LongMap transitionCounts = stateTransitionCounts.get(state).get(actionIndex);
+  /**
+   * Adds one sample of the given transition, see {@link #addTransitionCount(int, int, int, long)}.
+   *
+   * @return the new count of the transition.
+   */
+  protected long incrementTransitionCount(int state, int originalActionIndex, int successor) {
+    return addTransitionCount(state, originalActionIndex, successor, 1L);
+  }
+
+  /**
+   * Adds samples of the given transition. All sampled counts have to be added through this method, so that
+   * {@link #onNewTransition(int, int)} is called for every transition sampled for the first time.
+   *
+   * @return the new count of the transition.
+   */
+  protected long addTransitionCount(int state, int originalActionIndex, int successor, long count) {
+    long newCount = stateTransitionCounts.add(state, originalActionIndex, successor, count);
+    if (count > 0 && newCount == count) {
+      onNewTransition(state, successor);
+    }
+    return newCount;
+  }
+
+  /**
+   * Called whenever a transition is sampled for the first time.
+   */
+  protected void onNewTransition(int state, int successor) {
+    numTrans++;
+    if (componentTracker != null) {
+      componentTracker.addEdge(state, successor);
+    }
+  }
+
+  /**
+   * Enables or disables deferred distribution updates. If enabled, sampling only increments counts and the learned
+   * distributions in the model are rebuilt lazily. Disabling flushes all pending updates.
+   */
+  public void setDeferDistributionUpdates(boolean defer) {
+    if (!defer) {
+      flushDistributions();
+    }
+    this.deferDistributionUpdates = defer;
+  }
+
+  public boolean isDeferDistributionUpdates() {
+    return deferDistributionUpdates;
+  }
 
-    long newTransitionCount = transitionCounts.getOrDefault(successor, 0) + 1;
-    transitionCounts.put(successor, newTransitionCount);
-    return newTransitionCount;
+  /**
+   * Rebuilds the learned distributions of all pending state-action pairs in the model.
+   */
+  public void flushDistributions() {
+    if (dirtyActions.isEmpty()) {
+      return;
+    }
+    for (int state : dirtyActions.keySet().toIntArray()) {
+      flushDistributions(state);
+    }
+  }
+
+  private void flushDistributions(int state) {
+    if (dirtyActions.isEmpty()) {
+      return;
+    }
+    IntSet pending = dirtyActions.remove(state);
+    if (pending == null) {
+      return;
+    }
+    List<Action> currActions = model.getActions(state);
+    pending.forEach((int actionIndex) -> {
+      Distribution distribution = getDistributionFromCounts(state, actionIndex);
+      currActions.set(actionIndex, Action.of(distribution, currActions.get(actionIndex).label()));
+    });
+    model.setActions(state, currActions);
   }
 
-  private void updateStateActionDistributionInModel(int state, int actionIndex, int originalActionIndex) {
-    Int2LongMap transitionCounts = stateTransitionCounts.get(state).get(originalActionIndex);
+  /**
+   * Updates the learned distribution of the given action, or marks it as pending if updates are deferred.
+   * @param originalActionIndex: index of the action in the unfiltered model.
+   */
+  protected void updateOrMarkDistribution(int state, int originalActionIndex) {
+    if (deferDistributionUpdates) {
+      dirtyActions.computeIfAbsent(state, k -> new IntOpenHashSet()).add(originalActionIndex);
+    } else {
+      updateStateActionDistributionInModel(state, originalActionIndex);
+    }
+  }
 
+  private void updateStateActionDistributionInModel(int state, int originalActionIndex) {
     List<Action> currActions = model.getActions(state);
-    Action currAction = currActions.get(actionIndex);
+    Action currAction = currActions.get(originalActionIndex);
 
-    Distribution distribution = getDistributionFromCounts(state, transitionCounts);
-    currActions.set(actionIndex, Action.of(distribution, currAction.label()));
+    Distribution distribution = getDistributionFromCounts(state, originalActionIndex);
+    currActions.set(originalActionIndex, Action.of(distribution, currAction.label()));
 
     model.setActions(state, currActions);
   }
 
+  /**
+   * Periodically writes a checkpoint of the learning state to the given file. Snapshots are taken
+   * during count updates and simulation steps, the file is written on a background thread.
+   */
+  public void enableCheckpoints(Path file, StateCodec<S> codec, long intervalMillis) {
+    disableCheckpoints();
+    checkpointWriter = new CheckpointWriter(file, intervalMillis);
+    checkpointCodec = codec;
+  }
+
+  /**
+   * Stops periodic checkpointing, waiting for a pending checkpoint to be written.
+   */
+  public void disableCheckpoints() {
+    if (checkpointWriter != null) {
+      checkpointWriter.close();
+      checkpointWriter = null;
+      checkpointCodec = null;
+    }
+  }
+
+  protected void checkpointIfDue() {
+    if (checkpointWriter == null || !checkpointWriter.isDue()) {
+      return;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      writeCheckpoint(out, checkpointCodec);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    checkpointWriter.submit(bytes.toByteArray());
+  }
+
+  /**
+   * Records all samples drawn from now on to the given file, see {@link #replayTrace(Path)}. Sampled transitions are
+   * recorded together with state explorations, so that a replay assigns the same state ids.
+   */
+  public void enableTraceRecording(Path file) throws IOException {
+    disableTraceRecording();
+    traceWriter = new TraceWriter(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16));
+  }
+
+  /**
+   * Stops recording and closes the trace file.
+   */
+  public void disableTraceRecording() throws IOException {
+    if (traceWriter != null) {
+      TraceWriter writer = traceWriter;
+      traceWriter = null;
+      writer.close();
+    }
+  }
+
+  protected final void recordTransition(int state, int originalActionIndex, int successor) {
+    if (traceWriter != null) {
+      traceWriter.transition(state, originalActionIndex, successor);
+    }
+  }
+
+  protected final void recordExploration(int state) {
+    if (traceWriter != null) {
+      traceWriter.exploration(state);
+    }
+  }
+
+  private void recordCount(int state, int originalActionIndex, int successor, long count) {
+    if (traceWriter != null) {
+      traceWriter.count(state, originalActionIndex, successor, count);
+    }
+  }
+
+  public long replayTrace(Path file) throws IOException {
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+      return replayTrace(in);
+    }
+  }
+
+  /**
+   * Feeds a recorded trace into this explorer as if its samples were drawn now. The explorer must use the same
+   * generator as the recording one and be in the same state as the recording one when recording started, usually
+   * freshly created. Distribution updates are deferred during the replay.
+   *
+   * @return the number of replayed records.
+   */
+  public long replayTrace(InputStream in) throws IOException {
+    boolean defer = deferDistributionUpdates;
+    setDeferDistributionUpdates(true);
+    long records;
+    try {
+      records = TraceReader.read(in, new TraceReader.TraceVisitor() {
+        @Override
+        public void explored(int state) throws IOException {
+          if (isExploredState(state)) {
+            return;
+          }
+          if (!stateMap.check(state)) {
+            throw new IOException("Trace explores unknown state " + state);
+          }
+          exploreState(state);
+        }
+
+        @Override
+        public void sampled(int state, int action, int successor, long count) throws IOException {
+          if (!isExploredState(state) || action >= stateTransitionCounts.actions(state)) {
+            throw new IOException(String.format("Trace samples unknown action %d of state %d", action, state));
+          }
+          try {
+            replaySamples(state, action, successor, count);
+          } catch (IllegalArgumentException e) {
+            throw new IOException("Trace does not match the model", e);
+          }
+        }
+      });
+    } finally {
+      setDeferDistributionUpdates(defer);
+    }
+    checkpointIfDue();
+    return records;
+  }
+
+  /**
+   * Adds recorded samples of a state-action-successor triple.
+   */
+  protected void replaySamples(int state, int originalActionIndex, int successor, long count) {
+    addTransitionCount(state, originalActionIndex, successor, count);
+    updateOrMarkDistribution(state, originalActionIndex);
+    updateActionFilter(state, originalActionIndex);
+  }
+
+  public void writeCheckpoint(Path file, StateCodec<S> codec) throws IOException {
+    try (DataOutputStream out =
+             new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file)))) {
+      writeCheckpoint(out, codec);
+    }
+  }
+
+  public void restoreCheckpoint(Path file, StateCodec<S> codec) throws IOException {
+    try (DataInputStream in =
+             new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      restoreCheckpoint(in, codec);
+    }
+  }
+
+  /**
+   * Writes the learning state of this explorer: the state table, the explored states, all
+   * transition counts and the filter settings. The true distributions and the learned partial
+   * model are not written, since they are determined by the generator and the counts.
+   */
+  public void writeCheckpoint(DataOutput out, StateCodec<S> codec) throws IOException {
+    out.writeInt(CHECKPOINT_MAGIC);
+    out.writeInt(CHECKPOINT_VERSION);
+
+    int stateCount = stateMap.size();
+    VarInts.writeVarInt(out, stateCount);
+    for (int stateId = 0; stateId < stateCount; stateId++) {
+      codec.write(out, stateMap.getState(stateId));
+    }
+
+    int[] explored = exploredStates.toIntArray();
+    Arrays.sort(explored);
+    VarInts.writeVarInt(out, explored.length);
+    for (int state : explored) {
+      VarInts.writeVarInt(out, state);
+      int actions = stateTransitionCounts.actions(state);
+      VarInts.writeVarInt(out, actions);
+      for (int action = 0; action < actions; action++) {
+        VarInts.writeVarInt(out, stateTransitionCounts.sampledSuccessors(state, action));
+        IOException[] failure = {null};
+        stateTransitionCounts.forEach(state, action, (successor, count) -> {
+          try {
+            VarInts.writeVarInt(out, successor);
+            VarInts.writeVarLong(out, count);
+          } catch (IOException e) {
+            failure[0] = e;
+          }
+        });
+        if (failure[0] != null) {
+          throw failure[0];
+        }
+      }
+    }
+
+    VarInts.writeVarInt(out, numTrans);
+    out.writeDouble(actionCountFilter);
+    out.writeBoolean(actionCountFilterActive);
+    writeCheckpointData(out);
+  }
+
+  /**
+   * Restores a checkpoint written by {@link #writeCheckpoint(DataOutput, StateCodec)}. The
+   * explorer has to be freshly created for the same generator, i.e. only its initial states may
+   * be explored. Explored states of the checkpoint are explored again to obtain their true
+   * distributions and the learned distributions of the model are rebuilt from the counts.
+   */
+  public void restoreCheckpoint(DataInput in, StateCodec<S> codec) throws IOException {
+    if (in.readInt() != CHECKPOINT_MAGIC) {
+      throw new IOException("Not an explorer checkpoint");
+    }
+    int version = in.readInt();
+    if (version != CHECKPOINT_VERSION) {
+      throw new IOException("Unsupported checkpoint version " + version);
+    }
+    if (actionCountFilterActive) {
+      deactivateActionCountFilter();
+    }
+
+    int stateCount = VarInts.readVarInt(in);
+    for (int stateId = 0; stateId < stateCount; stateId++) {
+      S state = codec.read(in);
+      if (stateId < stateMap.size()) {
+        if (!state.equals(stateMap.getState(stateId))) {
+          throw new IOException(String.format("Checkpoint does not match generator: "
+              + "state %d is %s, expected %s", stateId, state, stateMap.getState(stateId)));
+        }
+      } else if (getStateId(state) != stateId) {
+        throw new IOException("Duplicate state " + state + " in checkpoint");
+      }
+    }
+
+    int exploredCount = VarInts.readVarInt(in);
+    for (int i = 0; i < exploredCount; i++) {
+      int state = VarInts.readVarInt(in);
+      if (state >= stateCount) {
+        throw new IOException("Unknown explored state " + state);
+      }
+      if (!isExploredState(state)) {
+        exploreState(state);
+      }
+
+      int actions = VarInts.readVarInt(in);
+      if (actions != stateTransitionCounts.actions(state)) {
+        throw new IOException(String.format("Checkpoint does not match generator: state %d "
+            + "has %d actions, expected %d", state, actions, stateTransitionCounts.actions(state)));
+      }
+      for (int action = 0; action < actions; action++) {
+        int successors = VarInts.readVarInt(in);
+        for (int j = 0; j < successors; j++) {
+          int successor = VarInts.readVarInt(in);
+          long count = VarInts.readVarLong(in);
+          try {
+            stateTransitionCounts.set(state, action, successor, count);
+          } catch (IllegalArgumentException e) {
+            throw new IOException("Checkpoint does not match generator", e);
+          }
+        }
+        if (successors > 0) {
+          updateStateActionDistributionInModel(state, action);
+        }
+        updateActionFilter(state, action);
+      }
+    }
+    if (stateMap.size() != stateCount) {
+      throw new IOException("Checkpoint does not match generator: found unknown successors");
+    }
+
+    numTrans = VarInts.readVarInt(in);
+    setActionCountFilter(in.readDouble());
+    boolean filterActive = in.readBoolean();
+    readCheckpointData(in);
+    if (componentTracker != null) {
+      addTransitionsToTracker();
+    }
+    if (filterActive) {
+      activateActionCountFilter();
+    }
+  }
+
+  // Subclasses append their additional learning state to checkpoints.
+  protected void writeCheckpointData(DataOutput out) throws IOException {
+    // Nothing to add
+  }
+
+  protected void readCheckpointData(DataInput in) throws IOException {
+    // Nothing to add
+  }
+
+  /**
+   * Additionally stops simulations once the given token is cancelled. The timeout of the explorer remains in effect.
+   */
+  public void setCancellationToken(CancellationToken token) {
+    this.cancellation = token.withChildDeadline(timeout);
+  }
+
+  // Called on every simulation step, the clock is only read every few calls
   protected boolean isTimeout() {
-    return System.currentTimeMillis() >= timeout;
+    return cancellation.isCancelled();
   }
 }
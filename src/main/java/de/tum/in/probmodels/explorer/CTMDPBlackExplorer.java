@@ -5,18 +5,26 @@ import de.tum.in.probmodels.generator.Generator;
 import de.tum.in.probmodels.model.*;
 import de.tum.in.probmodels.util.Sample;
 import de.tum.in.probmodels.util.Util;
-import it.unimi.dsi.fastutil.ints.*;
+import de.tum.in.probmodels.util.VarInts;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import it.unimi.dsi.fastutil.objects.ObjectArrayList;
-import prism.Pair;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.SplittableRandom;
 
 public class CTMDPBlackExplorer<S, M extends Model> extends BlackExplorer<S, M>{
 
-  private Int2ObjectMap<ObjectArrayList<Int2DoubleMap>> stateTransitionRates;
-
-  public Int2ObjectMap<Int2ObjectMap<Pair<Double, Long>>> transitionTimes;
+  // Per state-action pair, indexed by stateTransitionCounts.stateActionIndex: the exit rate, and the sum and number
+  // of sampled stay times
+  private double[] exitRates;
+  private double[] stayTimeSums;
+  private long[] stayTimeCounts;
 
   public CTMDPBlackExplorer(M model, Generator<S> generator, boolean removeSelfLoops, long timeout) {
     super(model, generator, removeSelfLoops, timeout);
@@ -25,14 +33,15 @@ public class CTMDPBlackExplorer<S, M extends Model> extends BlackExplorer<S, M>{
   @Override
   protected void initializeVars() {
     super.initializeVars();
-    transitionTimes = new Int2ObjectOpenHashMap<>();
-    stateTransitionRates = new Int2ObjectOpenHashMap<>();
+    exitRates = new double[16];
+    stayTimeSums = new double[16];
+    stayTimeCounts = new long[16];
   }
 
   @Override
   public M model() {
     // Write uniformization code here.
-    return model;
+    return super.model();
   }
 
   /**
@@ -40,87 +49,73 @@ public class CTMDPBlackExplorer<S, M extends Model> extends BlackExplorer<S, M>{
    * immediately updated. Returns whether a new action has been sampled more than actionCountFilter number of times.
    */
   public boolean updateCounts(int state, int actionIndex, int successor, boolean update){
-    if (actionCountFilterActive) {
-      actionIndex = unfilteredActionIndexMap.get(state).get(actionIndex);
-    }
-    Int2LongMap transitionCounts = stateTransitionCounts.get(state).get(actionIndex);
-    transitionCounts.put(successor, transitionCounts.getOrDefault(successor, 0)+1);
+    int originalActionIndex = originalActionIndex(state, actionIndex);
+    incrementTransitionCount(state, originalActionIndex, successor);
 
     boolean newTrans = false;
 
-    if (transitionCounts.get(successor)==1){
-      numTrans++;
-    }
-
     long actionCount = getActionCounts(state, actionIndex);
     if(actionCount>actionCountFilter && actionCount-1<=actionCountFilter){
       newTrans = true;
     }
 
     if (update) {
-      List<Action> currActions = model.getActions(state);
-      Action currAction = currActions.get(actionIndex);
-
-      Distribution distribution = getDistributionFromCounts(state, transitionCounts);
-      currActions.set(actionIndex, Action.of(distribution, currAction.label()));
-
-      model.setActions(state, currActions);
+      updateOrMarkDistribution(state, originalActionIndex);
     }
+    updateActionFilter(state, originalActionIndex);
+    recordTransition(state, originalActionIndex, successor);
 
-    double stayTime = getStayTime(state, actionIndex);
-    accumulateStayTime(state, actionIndex, stayTime);
+    double stayTime = getStayTime(state, originalActionIndex);
+    accumulateStayTime(state, originalActionIndex, stayTime);
 
+    checkpointIfDue();
     return newTrans;
   }
 
+  /**
+   * @return the exit rate of the given action, i.e. the sum of its rates.
+   */
+  public double getExitRate(int state, int actionIndex) {
+    return exitRates[stateTransitionCounts.stateActionIndex(state, actionIndex)];
+  }
+
   private double getStayTime(int state, int actionIndex) {
-    return Sample.sampleExponential(stateTransitionRates.get(state).get(actionIndex).values().stream().reduce(0d, Double::sum));
+    return Sample.sampleExponential(getExitRate(state, actionIndex));
   }
 
   private void accumulateStayTime(int state, int actionIndex, double stayTime) {
-    Pair<Double, Long> transitionTimePair = transitionTimes.get(state).get(actionIndex);
-    double accumulatedStayTime = transitionTimePair.first;
-    long stayTimeCount = transitionTimePair.second;
-    accumulatedStayTime += stayTime;
+    accumulateStayTimes(state, actionIndex, stayTime, 1L);
+  }
 
-    // To prevent overflow
-    if (stayTimeCount < Long.MAX_VALUE) {
-      stayTimeCount++;
-    }
+  private void accumulateStayTimes(int state, int actionIndex, double stayTimeSum, long count) {
+    int stateAction = stateTransitionCounts.stateActionIndex(state, actionIndex);
+    stayTimeSums[stateAction] += stayTimeSum;
 
-    transitionTimePair.first = accumulatedStayTime;
-    transitionTimePair.second = stayTimeCount;
+    // To prevent overflow
+    long stayTimeCount = stayTimeCounts[stateAction];
+    stayTimeCounts[stateAction] = stayTimeCount > Long.MAX_VALUE - count ? Long.MAX_VALUE : stayTimeCount + count;
   }
 
   @Override
   public void simulateActionRepeatedly(int stateId, int filteredIndex, double requiredSamples){
-    int realIndex = filteredIndex;
-    if (actionCountFilterActive) {
-      realIndex = unfilteredActionIndexMap.get(stateId).get(filteredIndex);
-    }
+    int realIndex = originalActionIndex(stateId, filteredIndex);
     Action action = stateActions.get(stateId).get(realIndex);
-    long actionCounts = getActionCounts(stateId, realIndex);
-    Int2IntMap actionTransitionCounts = new Int2IntOpenHashMap();
-    for(int succ: action.distribution().support()) {
-      actionTransitionCounts.put(succ, 0);
-    }
+    long actionCounts = stateTransitionCounts.total(stateId, realIndex);
+    long samples = 0;
     while (actionCounts<requiredSamples) {
       int succ = action.distribution().sample();
-      actionTransitionCounts.put(succ, actionTransitionCounts.get(succ)+1);
-      double stayTime = getStayTime(stateId, realIndex);
-      accumulateStayTime(stateId, realIndex, stayTime);
+      incrementTransitionCount(stateId, realIndex, succ);
+      recordTransition(stateId, realIndex, succ);
       actionCounts++;
+      samples++;
     }
-    for(int succ: action.distribution().support()) {
-      long currValue = stateTransitionCounts.get(stateId).get(realIndex).get(succ);
-      stateTransitionCounts.get(stateId).get(realIndex)
-          .put(succ, currValue+actionTransitionCounts.get(succ));
+    // Only the sum of the stay times is needed, which can be sampled at once
+    if (samples > 0) {
+      accumulateStayTimes(stateId, realIndex, Sample.sampleExponentialSum(getExitRate(stateId, realIndex), samples),
+          samples);
     }
-    List<Action> currActions = model.getActions(stateId);
-    Distribution distribution = getDistributionFromCounts(stateId, stateTransitionCounts.get(stateId).get(realIndex));
-    currActions.set(filteredIndex, Action.of(distribution, action.label()));
-
-    model.setActions(stateId, currActions);
+    updateOrMarkDistribution(stateId, realIndex);
+    updateActionFilter(stateId, realIndex);
   }
 
   @Override
@@ -131,6 +126,57 @@ public class CTMDPBlackExplorer<S, M extends Model> extends BlackExplorer<S, M>{
     accumulateStayTime(state, originalActionIndex, stayTime);
   }
 
+  /**
+   * Stay times are not recorded, they are sampled again from the exit rates.
+   */
+  @Override
+  protected void replaySamples(int state, int originalActionIndex, int successor, long count) {
+    super.replaySamples(state, originalActionIndex, successor, count);
+    accumulateStayTimes(state, originalActionIndex,
+        Sample.sampleExponentialSum(getExitRate(state, originalActionIndex), count), count);
+  }
+
+  @Override
+  SimulationWorker createSimulationWorker(MecWalk walk, SplittableRandom random, int initialState) {
+    return new StayTimeSimulationWorker(walk, random, initialState);
+  }
+
+  /**
+   * Additionally counts the steps per state-action. The stay times of all steps are sampled at once when merging, as
+   * only their sum is needed.
+   */
+  private final class StayTimeSimulationWorker extends SimulationWorker {
+    // Per state-action of the walk
+    private final long[] steps;
+
+    StayTimeSimulationWorker(MecWalk walk, SplittableRandom random, int initialState) {
+      super(walk, random, initialState);
+      steps = new long[walk.stateActionCount()];
+    }
+
+    @Override
+    protected void onStep(int stateAction, int transition) {
+      steps[stateAction] += 1;
+    }
+
+    @Override
+    protected void merge() {
+      super.merge();
+      for (int i = 0; i < walk.stateCount(); i++) {
+        int state = walk.states[i];
+        for (int stateAction = walk.actionOffsets[i]; stateAction < walk.actionOffsets[i + 1]; stateAction++) {
+          long count = steps[stateAction];
+          if (count > 0) {
+            int action = walk.originalActions[stateAction];
+            double stayTimeSum = Sample.sampleExponentialSum(random::nextDouble, getExitRate(state, action), count);
+            accumulateStayTimes(state, action, stayTimeSum, count);
+            steps[stateAction] = 0;
+          }
+        }
+      }
+    }
+  }
+
   @Override
   public S exploreState(int stateId) {
     assert stateMap.check(stateId) && !isExploredState(stateId);
@@ -140,24 +186,18 @@ public class CTMDPBlackExplorer<S, M extends Model> extends BlackExplorer<S, M>{
     S state = stateMap.getState(stateId);
     assert state != null;
 
-    ObjectArrayList<Int2LongMap> stateActionCounts = new ObjectArrayList<>();
     ObjectArrayList<Action> stateChoices = new ObjectArrayList<>();
 
-    Int2ObjectMap<Pair<Double, Long>> stateTransitionTimes = new Int2ObjectOpenHashMap<>();
-    ObjectArrayList<Int2DoubleMap> stateTransitionRates = new ObjectArrayList<>();
+    DoubleList stateExitRates = new DoubleArrayList();
 
     int actionCount = -1;
     for (Choice<S> choice : generator.choices(state)) {
       actionCount++;
       DistributionBuilder builder = Distributions.defaultBuilder();
-      Int2DoubleMap rateMap = new Int2DoubleOpenHashMap();
 
       double rateSum = 0d;
       for (Object2DoubleMap.Entry<S> transition : choice.transitions().object2DoubleEntrySet()) {
-        int target = getStateId(transition.getKey());
-        double rate = transition.getDoubleValue();
-        rateMap.put(target, rate);
-        rateSum += rate;
+        rateSum += transition.getDoubleValue();
       }
 
       for (Object2DoubleMap.Entry<S> transition : choice.transitions().object2DoubleEntrySet()) {
@@ -166,42 +206,79 @@ public class CTMDPBlackExplorer<S, M extends Model> extends BlackExplorer<S, M>{
         builder.add(target, rate/rateSum);
       }
 
-      stateTransitionTimes.put(actionCount, new Pair<>(0d, 0L));
       // scale the distribution if any values in the original support were skipped
       Distribution distribution = builder.scaled();
       assert distribution.isEmpty() || Util.isOne(distribution.sum()) : distribution;
       // Real distribution added to stateChoices
       stateChoices.add(Action.of(distribution, choice.label()));
-      stateTransitionRates.add(rateMap);
-
-      stateActionCounts.add(new Int2LongOpenHashMap());
+      stateExitRates.add(rateSum);
 
       // Empty distribution added to model
       DistributionBuilder emptyBuilder = Distributions.defaultBuilder();
       model.addChoice(stateId, Action.of(emptyBuilder.build(), choice.label()));
     }
 
-    stateTransitionCounts.put(stateId, stateActionCounts);
+    stateTransitionCounts.addState(stateId, stateChoices);
     stateActions.put(stateId, stateChoices);
-
-    transitionTimes.put(stateId, stateTransitionTimes);
-    this.stateTransitionRates.put(stateId, stateTransitionRates);
+    ensureStateActionCapacity(stateTransitionCounts.stateActionCount());
+    for (int i = 0; i < stateChoices.size(); i++) {
+      exitRates[stateTransitionCounts.stateActionIndex(stateId, i)] = stateExitRates.getDouble(i);
+      updateActionFilter(stateId, i);
+    }
+    recordExploration(stateId);
 
     exploredActionsCount += stateChoices.size();
 
     return state;
   }
 
-  public double computeRate(int state, int action) {
-    int originalActionIndex = action;
-    if (actionCountFilterActive) {
-      originalActionIndex = unfilteredActionIndexMap.get(state).get(action);
+  private void ensureStateActionCapacity(int capacity) {
+    if (capacity > exitRates.length) {
+      int newLength = Math.max(capacity, exitRates.length * 2);
+      exitRates = Arrays.copyOf(exitRates, newLength);
+      stayTimeSums = Arrays.copyOf(stayTimeSums, newLength);
+      stayTimeCounts = Arrays.copyOf(stayTimeCounts, newLength);
+    }
+  }
+
+  @Override
+  protected void writeCheckpointData(DataOutput out) throws IOException {
+    super.writeCheckpointData(out);
+    int[] states = exploredStates.toIntArray();
+    Arrays.sort(states);
+    VarInts.writeVarInt(out, states.length);
+    for (int state : states) {
+      int actions = stateTransitionCounts.actions(state);
+      VarInts.writeVarInt(out, state);
+      VarInts.writeVarInt(out, actions);
+      for (int action = 0; action < actions; action++) {
+        int stateAction = stateTransitionCounts.stateActionIndex(state, action);
+        out.writeDouble(stayTimeSums[stateAction]);
+        VarInts.writeVarLong(out, stayTimeCounts[stateAction]);
+      }
     }
+  }
 
-    Pair<Double, Long> transitionTimesPair = transitionTimes.get(state).get(originalActionIndex);
-    long numStayTimes = transitionTimesPair.second;
-    double accumulatedStayTimes = transitionTimesPair.first;
+  @Override
+  protected void readCheckpointData(DataInput in) throws IOException {
+    super.readCheckpointData(in);
+    int stateCount = VarInts.readVarInt(in);
+    for (int i = 0; i < stateCount; i++) {
+      int state = VarInts.readVarInt(in);
+      int actions = VarInts.readVarInt(in);
+      if (!stateTransitionCounts.contains(state) || stateTransitionCounts.actions(state) != actions) {
+        throw new IOException("Checkpoint stay times do not match state " + state);
+      }
+      for (int action = 0; action < actions; action++) {
+        int stateAction = stateTransitionCounts.stateActionIndex(state, action);
+        stayTimeSums[stateAction] = in.readDouble();
+        stayTimeCounts[stateAction] = VarInts.readVarLong(in);
+      }
+    }
+  }
 
-    return numStayTimes / accumulatedStayTimes;
+  public double computeRate(int state, int action) {
+    int stateAction = stateTransitionCounts.stateActionIndex(state, originalActionIndex(state, action));
+    return stayTimeCounts[stateAction] / stayTimeSums[stateAction];
   }
 }
@@ -0,0 +1,83 @@
+package de.tum.in.probmodels.explorer;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Writes checkpoint snapshots to a file on a background thread. Snapshots are serialized by the
+ * owner (which is not thread safe) and only the file I/O is offloaded. Files are replaced
+ * atomically, so a crash during a write leaves the previous checkpoint intact.
+ */
+final class CheckpointWriter implements AutoCloseable {
+  private static final Logger logger = Logger.getLogger(CheckpointWriter.class.getName());
+  // Reading the clock on every simulation step is measurable, hence only check every few calls
+  private static final int CLOCK_CHECK_INTERVAL = 4096;
+
+  private final Path file;
+  private final long intervalMillis;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "checkpoint-writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private long nextCheckpoint;
+  private int callsSinceClockCheck = 0;
+  private Future<?> pendingWrite = null;
+
+  CheckpointWriter(Path file, long intervalMillis) {
+    this.file = file;
+    this.intervalMillis = intervalMillis;
+    this.nextCheckpoint = System.currentTimeMillis() + intervalMillis;
+  }
+
+  boolean isDue() {
+    callsSinceClockCheck += 1;
+    if (callsSinceClockCheck < CLOCK_CHECK_INTERVAL) {
+      return false;
+    }
+    callsSinceClockCheck = 0;
+    if (pendingWrite != null && !pendingWrite.isDone()) {
+      // Previous snapshot still being written, skip this one
+      return false;
+    }
+    return System.currentTimeMillis() >= nextCheckpoint;
+  }
+
+  void submit(byte[] snapshot) {
+    nextCheckpoint = System.currentTimeMillis() + intervalMillis;
+    pendingWrite = executor.submit(() -> write(snapshot));
+  }
+
+  private void write(byte[] snapshot) {
+    Path temporary = file.resolveSibling(file.getFileName() + ".tmp");
+    try {
+      Files.write(temporary, snapshot);
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      logger.log(Level.FINE, "Wrote checkpoint of {0} bytes to {1}",
+          new Object[] {snapshot.length, file});
+    } catch (IOException e) {
+      logger.log(Level.WARNING, "Failed to write checkpoint to " + file, e);
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdown();
+    try {
+      if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+        logger.log(Level.WARNING, "Checkpoint writer did not terminate");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
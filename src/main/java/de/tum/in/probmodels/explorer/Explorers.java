@@ -9,6 +9,10 @@ public class Explorers {
 
   }
 
+  /**
+   * The partial model is filled by the explorer. Black and grey box explorers keep all learned actions in it, also
+   * while their action count filter is active, see {@link BlackExplorer#filteredModel()}.
+   */
   public static <S, M extends Model> Explorer<S, M> getExplorer(M partialModel, Generator<S> generator,
                                                                 InformationLevel informationLevel, boolean removeSelfLoops,
                                                                 long timeout){
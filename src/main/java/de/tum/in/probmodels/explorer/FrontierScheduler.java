@@ -0,0 +1,249 @@
+package de.tum.in.probmodels.explorer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.util.PrismWrappedException;
+import explicit.Model;
+import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import prism.PrismException;
+
+/**
+ * Decides in which order the frontier of an {@link Explorer} is explored. The scheduler keeps
+ * track of all discovered but unexplored successors of explored states together with their
+ * depth and an estimate of their reach probability (the probability of the most likely path from
+ * an initial state). States are explored in order of a pluggable {@link Score}, until either the
+ * frontier is empty or a state or memory budget is exhausted.
+ *
+ * <p>Successors are only discovered through {@link #update(int)}, which is called automatically
+ * for states explored by the scheduler and propagates improved estimates through the explored
+ * part. For explorers which learn transitions over time (e.g. black box exploration),
+ * {@link #update(int)} should be called again when new transitions of a state are known.</p>
+ */
+public class FrontierScheduler<S, M extends Model> {
+  // Checking the heap usage is not free, so it is only done every few steps
+  private static final int MEMORY_CHECK_INTERVAL = 256;
+
+  @FunctionalInterface
+  public interface Score {
+    /**
+     * Returns the priority of an unexplored state, states with higher values are explored first.
+     */
+    double score(int state, int depth, double reachProbability);
+
+    static Score reachProbability() {
+      return (state, depth, reachProbability) -> reachProbability;
+    }
+
+    static Score breadthFirst() {
+      return (state, depth, reachProbability) -> -depth;
+    }
+
+    static Score depthFirst() {
+      return (state, depth, reachProbability) -> depth;
+    }
+  }
+
+  private final Explorer<S, M> explorer;
+  private final Score score;
+  private final Int2IntMap depth = new Int2IntOpenHashMap();
+  private final Int2DoubleMap reachProbability = new Int2DoubleOpenHashMap();
+  // Current priority of each frontier state. The queue may contain outdated entries of a state,
+  // which are recognized by their priority differing from this value.
+  private final Int2DoubleMap priority = new Int2DoubleOpenHashMap();
+  private final PriorityQueue<Entry> queue =
+      new PriorityQueue<>(Comparator.comparingDouble((Entry e) -> e.priority).reversed());
+
+  private int maxExploredStates = Integer.MAX_VALUE;
+  private long maxUsedMemory = Long.MAX_VALUE;
+  private int stepsSinceMemoryCheck = 0;
+  private boolean memoryExhausted = false;
+
+  public FrontierScheduler(Explorer<S, M> explorer, Score score) {
+    this.explorer = explorer;
+    this.score = score;
+    depth.defaultReturnValue(Integer.MAX_VALUE);
+    reachProbability.defaultReturnValue(0.0d);
+
+    explorer.initialStates().forEach((int initialState) -> {
+      depth.put(initialState, 0);
+      reachProbability.put(initialState, 1.0d);
+    });
+    explorer.initialStates().forEach((int initialState) -> {
+      if (explorer.isExploredState(initialState)) {
+        update(initialState);
+      } else {
+        enqueue(initialState);
+      }
+    });
+  }
+
+  public FrontierScheduler<S, M> withStateBudget(int maxExploredStates) {
+    checkArgument(maxExploredStates >= 0);
+    this.maxExploredStates = maxExploredStates;
+    return this;
+  }
+
+  public FrontierScheduler<S, M> withMemoryBudget(long maxUsedBytes) {
+    checkArgument(maxUsedBytes > 0);
+    this.maxUsedMemory = maxUsedBytes;
+    return this;
+  }
+
+  /**
+   * (Re-)scans the choices of an explored state and adds all unexplored successors to the
+   * frontier, updating depth and reach probability estimates of already known ones. Improved
+   * estimates of explored states are propagated to their successors in turn, until no estimate
+   * changes. This terminates, as depths only decrease and a reach probability only increases when a
+   * more likely path without cycles is found.
+   */
+  public void update(int state) {
+    assert explorer.isExploredState(state);
+    IntArrayFIFOQueue worklist = new IntArrayFIFOQueue();
+    IntSet queued = new IntOpenHashSet();
+    worklist.enqueue(state);
+    queued.add(state);
+
+    while (!worklist.isEmpty()) {
+      int current = worklist.dequeueInt();
+      queued.remove(current);
+      int stateDepth = depth.get(current);
+      int successorDepth = stateDepth == Integer.MAX_VALUE ? Integer.MAX_VALUE : stateDepth + 1;
+      double stateReach = reachProbability.get(current);
+
+      for (Distribution distribution : explorer.getChoices(current)) {
+        distribution.forEach((successor, probability) -> {
+          boolean changed = false;
+          if (successorDepth < depth.get(successor)) {
+            depth.put(successor, successorDepth);
+            changed = true;
+          }
+          double successorReach = stateReach * probability;
+          if (successorReach > reachProbability.get(successor)) {
+            reachProbability.put(successor, successorReach);
+            changed = true;
+          }
+          if (!changed) {
+            return;
+          }
+          if (explorer.isExploredState(successor)) {
+            if (queued.add(successor)) {
+              worklist.enqueue(successor);
+            }
+          } else {
+            enqueue(successor);
+          }
+        });
+      }
+    }
+  }
+
+  private void enqueue(int state) {
+    double statePriority = score.score(state, depth.get(state), reachProbability.get(state));
+    if (priority.containsKey(state) && priority.get(state) == statePriority) {
+      return;
+    }
+    priority.put(state, statePriority);
+    queue.add(new Entry(state, statePriority));
+  }
+
+  /**
+   * Returns the unexplored state with the highest priority and removes it from the frontier, or
+   * -1 if the frontier is empty or the budget is exhausted.
+   */
+  public int next() {
+    if (isBudgetExhausted()) {
+      return -1;
+    }
+    while (!queue.isEmpty()) {
+      Entry entry = queue.poll();
+      int state = entry.state;
+      if (!priority.containsKey(state) || priority.get(state) != entry.priority) {
+        continue;
+      }
+      priority.remove(state);
+      if (!explorer.isExploredState(state)) {
+        return state;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Explores the unexplored state with the highest priority.
+   *
+   * @return the explored state or -1 if nothing was explored.
+   */
+  public int exploreNext() {
+    int state = next();
+    if (state == -1) {
+      return -1;
+    }
+    try {
+      explorer.exploreState(state);
+    } catch (PrismException e) {
+      throw new PrismWrappedException(e);
+    }
+    update(state);
+    return state;
+  }
+
+  /**
+   * Explores states in order of priority until the frontier is empty or the budget is exhausted.
+   *
+   * @return the number of explored states.
+   */
+  public int exploreAll() {
+    int explored = 0;
+    while (exploreNext() != -1) {
+      explored += 1;
+    }
+    return explored;
+  }
+
+  public boolean isBudgetExhausted() {
+    if (explorer.exploredStateCount() >= maxExploredStates) {
+      return true;
+    }
+    if (maxUsedMemory == Long.MAX_VALUE || memoryExhausted) {
+      return memoryExhausted;
+    }
+    stepsSinceMemoryCheck += 1;
+    if (stepsSinceMemoryCheck >= MEMORY_CHECK_INTERVAL) {
+      stepsSinceMemoryCheck = 0;
+      Runtime runtime = Runtime.getRuntime();
+      memoryExhausted = runtime.totalMemory() - runtime.freeMemory() > maxUsedMemory;
+    }
+    return memoryExhausted;
+  }
+
+  public int frontierSize() {
+    return priority.size();
+  }
+
+  public int depth(int state) {
+    return depth.get(state);
+  }
+
+  public double reachProbability(int state) {
+    return reachProbability.get(state);
+  }
+
+  private static final class Entry {
+    final int state;
+    final double priority;
+
+    Entry(int state, double priority) {
+      this.state = state;
+      this.priority = priority;
+    }
+  }
+}
@@ -4,7 +4,9 @@ import de.tum.in.probmodels.generator.Generator;
 import de.tum.in.probmodels.model.*;
 import it.unimi.dsi.fastutil.ints.*;
 
-import java.util.ArrayList;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 
 
@@ -20,23 +22,9 @@ public class GreyExplorer<S, M extends Model> extends BlackExplorer<S, M> {
      * We only keep actions for which all the successors has been explored.
      */
     @Override
-    public List<Action> filterActions(int stateId) {
-        List<Action> actions = getActions(stateId);
-        List<Action> filteredActions = new ArrayList<>();
-        unfilteredActionIndexMap.put(stateId, new Int2IntOpenHashMap());
-
-        for (int i = 0; i < actions.size(); i++) {
-            if (actions.get(i).distribution().size() == 0) {
-                continue;
-            }
-
-            if (isStateActionExplored(stateId, i)) {
-                unfilteredActionIndexMap.get(stateId).put(filteredActions.size(), i);
-                filteredActions.add(actions.get(i));
-            }
-        }
-
-        return filteredActions;
+    protected boolean passesActionFilter(int stateId, int originalActionIndex) {
+        return stateTransitionCounts.successors(stateId, originalActionIndex) > 0
+            && stateTransitionCounts.isFullySampled(stateId, originalActionIndex);
     }
 
     @Override
@@ -44,9 +32,9 @@ public class GreyExplorer<S, M extends Model> extends BlackExplorer<S, M> {
         int oldNumTrans = numTrans;
         boolean result =  super.updateCounts(state, actionIndex, successor);
 
-        // This means a new transition has been visited
-        if (oldNumTrans < numTrans) {
-            isNewFullyExploredActionAvailable = isNewFullyExploredActionAvailable || isStateActionExplored(state, actionIndex);
+        // This means a new transition has been visited, which may have completed the action
+        if (oldNumTrans < numTrans && !isNewFullyExploredActionAvailable) {
+            isNewFullyExploredActionAvailable = isStateActionExplored(state, actionIndex);
         }
         return result;
     }
@@ -60,15 +48,11 @@ public class GreyExplorer<S, M extends Model> extends BlackExplorer<S, M> {
     }
 
     /**
-     * @return true if all the successors of the (stateId, exploredAction) has been visited.
+     * @return true if all the successors of the (stateId, exploredAction) has been visited. Runs in constant time, the
+     * number of visited successors is maintained by stateTransitionCounts.
      */
     public boolean isStateActionExplored(int stateId, int actionIndex) {
-        int actualSuccessors = getActualSuccessorsOfStateAction(stateId, actionIndex);
-
-        Action exploredAction = getActions(stateId).get(actionIndex);
-        int exploredSuccessors = exploredAction.distribution().size();
-
-        return actualSuccessors == exploredSuccessors;
+        return stateTransitionCounts.isFullySampled(stateId, originalActionIndex(stateId, actionIndex));
     }
 
     /**
@@ -78,17 +62,22 @@ public class GreyExplorer<S, M extends Model> extends BlackExplorer<S, M> {
      * @return The actual successors of this action, as per the original MDP.
      */
     public int getActualSuccessorsOfStateAction(int stateId, int actionIndex) {
+        return stateTransitionCounts.successors(stateId, actionIndex);
+    }
 
-        // We find the same action in stateActions variable.
-        Action actualAction = stateActions.get(stateId).get(actionIndex);
-
-        assert actualAction != null;
-        assert actualAction.distribution() != null;
+    @Override
+    protected void writeCheckpointData(DataOutput out) throws IOException {
+        super.writeCheckpointData(out);
+        out.writeBoolean(isNewFullyExploredActionAvailable);
+    }
 
-        return actualAction.distribution().size();
+    @Override
+    protected void readCheckpointData(DataInput in) throws IOException {
+        super.readCheckpointData(in);
+        isNewFullyExploredActionAvailable = in.readBoolean();
     }
 
     public int getOriginalNumSuccessors(int state, int action) {
-        return stateActions.get(state).get(action).distribution().support().size();
+        return stateTransitionCounts.successors(state, action);
     }
 }
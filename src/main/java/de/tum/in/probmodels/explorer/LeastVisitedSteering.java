@@ -0,0 +1,202 @@
+package de.tum.in.probmodels.explorer;
+
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Chooses actions of a random walk in a {@link MecWalk} such that under-sampled state-action
+ * pairs are reached quickly. In a state with an action below the sample target, the least visited
+ * such action is chosen. Otherwise, the walk moves towards the state of the globally least visited
+ * pair by choosing the action with the least expected hitting time of it.
+ *
+ * <p>Hitting times are recomputed only when the target state has no under-sampled action left,
+ * i.e. at most once per state of the MEC. They are obtained by value iteration, starting from the
+ * graph distances found by a backward breadth-first search, which are lower bounds. Since the
+ * iteration is stopped early, the greedy choice may still cycle without reaching the target, so
+ * the walk samples a random action whenever the hitting time has not dropped for as many steps as
+ * there are states.</p>
+ */
+final class LeastVisitedSteering {
+  private static final int MAX_ITERATIONS = 1000;
+  private static final double PRECISION = 1.0e-6;
+
+  private final MecWalk walk;
+  // Per state-action of the walk: the local state it belongs to
+  private final int[] stateOfAction;
+  // Backward edges: the predecessors of local state s are the indices predecessorOffsets[s] until
+  // predecessorOffsets[s + 1] of predecessors
+  private final int[] predecessorOffsets;
+  private final int[] predecessors;
+  private final int[] distance;
+  private final double[] hittingTime;
+  private final IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+  private int target = -1;
+  // Least hitting time of the current target seen along the walk and the steps taken since then
+  private double bestHittingTime;
+  private int stepsWithoutProgress;
+
+  LeastVisitedSteering(MecWalk walk) {
+    this.walk = walk;
+    int stateCount = walk.stateCount();
+    stateOfAction = new int[walk.stateActionCount()];
+    int[] predecessorCounts = new int[stateCount + 1];
+    for (int state = 0; state < stateCount; state++) {
+      for (int stateAction = walk.actionOffsets[state];
+           stateAction < walk.actionOffsets[state + 1]; stateAction++) {
+        stateOfAction[stateAction] = state;
+        for (int transition = walk.transitionOffsets[stateAction];
+             transition < walk.transitionOffsets[stateAction + 1]; transition++) {
+          int successor = walk.localSuccessors[transition];
+          if (successor != -1) {
+            predecessorCounts[successor + 1] += 1;
+          }
+        }
+      }
+    }
+    for (int state = 0; state < stateCount; state++) {
+      predecessorCounts[state + 1] += predecessorCounts[state];
+    }
+    predecessorOffsets = predecessorCounts.clone();
+    predecessors = new int[predecessorOffsets[stateCount]];
+    for (int stateAction = 0; stateAction < walk.stateActionCount(); stateAction++) {
+      for (int transition = walk.transitionOffsets[stateAction];
+           transition < walk.transitionOffsets[stateAction + 1]; transition++) {
+        int successor = walk.localSuccessors[transition];
+        if (successor != -1) {
+          predecessors[predecessorCounts[successor]] = stateOfAction[stateAction];
+          predecessorCounts[successor] += 1;
+        }
+      }
+    }
+    distance = new int[stateCount];
+    hittingTime = new double[stateCount];
+  }
+
+  int chooseAction(int state, VisitCountHeap visits, double requiredSamples,
+      SplittableRandom random) {
+    int leastAction = leastVisitedAction(state, visits);
+    if (visits.count(leastAction) < requiredSamples) {
+      return leastAction;
+    }
+
+    if (target == -1 || isSaturated(target, visits, requiredSamples)) {
+      target = stateOfAction[visits.minElement()];
+      computeDistances();
+      computeHittingTimes();
+      bestHittingTime = Double.POSITIVE_INFINITY;
+      stepsWithoutProgress = 0;
+    }
+    if (distance[state] == Integer.MAX_VALUE) {
+      // Target not reachable in the learned graph, fall back to a uniform choice
+      return walk.sampleAction(state, random);
+    }
+    if (hittingTime[state] < bestHittingTime) {
+      bestHittingTime = hittingTime[state];
+      stepsWithoutProgress = 0;
+    } else {
+      stepsWithoutProgress += 1;
+      if (stepsWithoutProgress > walk.stateCount()) {
+        // Presumably stuck in a cycle of greedy choices, break it by a uniform choice
+        stepsWithoutProgress = 0;
+        return walk.sampleAction(state, random);
+      }
+    }
+
+    int bestAction = bestAction(state);
+    return bestAction == -1 ? walk.sampleAction(state, random) : bestAction;
+  }
+
+  // The action with the least expected hitting time of the target, -1 if all are infinite
+  private int bestAction(int state) {
+    int bestAction = -1;
+    double bestTime = Double.POSITIVE_INFINITY;
+    for (int stateAction = walk.actionOffsets[state];
+         stateAction < walk.actionOffsets[state + 1]; stateAction++) {
+      double expectedTime = expectedHittingTime(stateAction);
+      if (expectedTime < bestTime) {
+        bestTime = expectedTime;
+        bestAction = stateAction;
+      }
+    }
+    return bestAction;
+  }
+
+  private int leastVisitedAction(int state, VisitCountHeap visits) {
+    int leastAction = walk.actionOffsets[state];
+    for (int stateAction = leastAction + 1; stateAction < walk.actionOffsets[state + 1];
+         stateAction++) {
+      if (visits.count(stateAction) < visits.count(leastAction)) {
+        leastAction = stateAction;
+      }
+    }
+    return leastAction;
+  }
+
+  private boolean isSaturated(int state, VisitCountHeap visits, double requiredSamples) {
+    return visits.count(leastVisitedAction(state, visits)) >= requiredSamples;
+  }
+
+  private double expectedHittingTime(int stateAction) {
+    double expectedTime = 0.0d;
+    double previous = 0.0d;
+    for (int transition = walk.transitionOffsets[stateAction];
+         transition < walk.transitionOffsets[stateAction + 1]; transition++) {
+      double probability = walk.cumulativeProbabilities[transition] - previous;
+      previous = walk.cumulativeProbabilities[transition];
+      int successor = walk.localSuccessors[transition];
+      if (successor == -1 || distance[successor] == Integer.MAX_VALUE) {
+        return Double.POSITIVE_INFINITY;
+      }
+      expectedTime += probability * hittingTime[successor];
+    }
+    return expectedTime;
+  }
+
+  private void computeDistances() {
+    Arrays.fill(distance, Integer.MAX_VALUE);
+    distance[target] = 0;
+    queue.clear();
+    queue.enqueue(target);
+    while (!queue.isEmpty()) {
+      int state = queue.dequeueInt();
+      for (int i = predecessorOffsets[state]; i < predecessorOffsets[state + 1]; i++) {
+        int predecessor = predecessors[i];
+        if (distance[predecessor] == Integer.MAX_VALUE) {
+          distance[predecessor] = distance[state] + 1;
+          queue.enqueue(predecessor);
+        }
+      }
+    }
+  }
+
+  // Minimal expected number of steps to the target, by Gauss-Seidel value iteration from the graph
+  // distances. The values only grow towards the fixpoint, so stopping early leaves lower bounds
+  private void computeHittingTimes() {
+    for (int state = 0; state < hittingTime.length; state++) {
+      hittingTime[state] = distance[state] == Integer.MAX_VALUE
+          ? Double.POSITIVE_INFINITY : distance[state];
+    }
+    for (int iteration = 0; iteration < MAX_ITERATIONS; iteration++) {
+      double maximalChange = 0.0d;
+      for (int state = 0; state < hittingTime.length; state++) {
+        if (state == target || distance[state] == Integer.MAX_VALUE) {
+          continue;
+        }
+        int bestAction = bestAction(state);
+        double value = bestAction == -1
+            ? Double.POSITIVE_INFINITY : 1.0d + expectedHittingTime(bestAction);
+        if (value == Double.POSITIVE_INFINITY) {
+          // All actions may leave the learned graph
+          hittingTime[state] = value;
+          continue;
+        }
+        maximalChange = Math.max(maximalChange, (value - hittingTime[state]) / value);
+        hittingTime[state] = value;
+      }
+      if (maximalChange < PRECISION) {
+        break;
+      }
+    }
+  }
+}
@@ -0,0 +1,146 @@
+package de.tum.in.probmodels.explorer;
+
+import de.tum.in.probmodels.graph.CompactMec;
+import de.tum.in.probmodels.graph.Mec;
+import de.tum.in.probmodels.model.Action;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.function.IntFunction;
+
+/**
+ * Immutable flat layout of the actions of a {@link Mec} together with their true distributions,
+ * used to simulate random walks in the MEC without touching the (not thread safe) explorer.
+ *
+ * <p>States are numbered locally as in {@link CompactMec}, i.e. ascending. The actions of local
+ * state {@code s} are the state-action indices {@code actionOffsets[s]} until
+ * {@code actionOffsets[s + 1]}, the transitions of state-action {@code a} are the indices
+ * {@code transitionOffsets[a]} until {@code transitionOffsets[a + 1]}.</p>
+ */
+final class MecWalk {
+  @FunctionalInterface
+  interface ActionIndexMap {
+    int originalIndex(int state, int actionIndex);
+  }
+
+  // Per local state
+  final int[] states;
+  final int[] actionOffsets;
+  // Per state-action
+  final int[] modelActions;
+  final int[] originalActions;
+  final int[] transitionOffsets;
+  // Per transition
+  final int[] successors;
+  // Local index of the successor, or -1 if the successor is not part of the MEC
+  final int[] localSuccessors;
+  final double[] cumulativeProbabilities;
+
+  private MecWalk(int[] states, int[] actionOffsets, int[] modelActions, int[] originalActions,
+      int[] transitionOffsets, int[] successors, int[] localSuccessors,
+      double[] cumulativeProbabilities) {
+    this.states = states;
+    this.actionOffsets = actionOffsets;
+    this.modelActions = modelActions;
+    this.originalActions = originalActions;
+    this.transitionOffsets = transitionOffsets;
+    this.successors = successors;
+    this.localSuccessors = localSuccessors;
+    this.cumulativeProbabilities = cumulativeProbabilities;
+  }
+
+  /**
+   * @param actionIndexMap maps the action indices of the MEC to the indices of the true actions.
+   * @param trueActions the true actions of each state, which are used to sample successors.
+   */
+  static MecWalk create(Mec mec, ActionIndexMap actionIndexMap,
+      IntFunction<? extends List<Action>> trueActions) {
+    CompactMec compact = mec.compact();
+    int stateCount = compact.size();
+    int[] states = new int[stateCount];
+    for (int i = 0; i < stateCount; i++) {
+      states[i] = compact.state(i);
+    }
+    int stateActionCount = compact.stateActionCount();
+
+    int[] actionOffsets = new int[stateCount + 1];
+    int[] modelActions = new int[stateActionCount];
+    int[] originalActions = new int[stateActionCount];
+    int[] transitionOffsets = new int[stateActionCount + 1];
+    int stateAction = 0;
+    int transitionCount = 0;
+    for (int i = 0; i < stateCount; i++) {
+      int state = states[i];
+      actionOffsets[i] = stateAction;
+      List<Action> actions = trueActions.apply(state);
+      for (int position = 0; position < compact.actionCount(i); position++) {
+        int action = compact.action(i, position);
+        int originalAction = actionIndexMap.originalIndex(state, action);
+        modelActions[stateAction] = action;
+        originalActions[stateAction] = originalAction;
+        transitionOffsets[stateAction] = transitionCount;
+        transitionCount += actions.get(originalAction).distribution().size();
+        stateAction += 1;
+      }
+    }
+    actionOffsets[stateCount] = stateAction;
+    transitionOffsets[stateActionCount] = transitionCount;
+
+    int[] successors = new int[transitionCount];
+    int[] localSuccessors = new int[transitionCount];
+    double[] cumulativeProbabilities = new double[transitionCount];
+    for (int i = 0; i < stateCount; i++) {
+      List<Action> actions = trueActions.apply(states[i]);
+      for (int sa = actionOffsets[i]; sa < actionOffsets[i + 1]; sa++) {
+        int[] transition = {transitionOffsets[sa]};
+        double[] sum = {0.0d};
+        actions.get(originalActions[sa]).distribution().forEach((successor, probability) -> {
+          int index = transition[0];
+          sum[0] += probability;
+          successors[index] = successor;
+          localSuccessors[index] = Math.max(compact.indexOf(successor), -1);
+          cumulativeProbabilities[index] = sum[0];
+          transition[0] += 1;
+        });
+      }
+    }
+    return new MecWalk(states, actionOffsets, modelActions, originalActions, transitionOffsets,
+        successors, localSuccessors, cumulativeProbabilities);
+  }
+
+  int stateCount() {
+    return states.length;
+  }
+
+  int stateActionCount() {
+    return modelActions.length;
+  }
+
+  int transitionCount() {
+    return successors.length;
+  }
+
+  int sampleAction(int localState, SplittableRandom random) {
+    int from = actionOffsets[localState];
+    int to = actionOffsets[localState + 1];
+    return to - from == 1 ? from : from + random.nextInt(to - from);
+  }
+
+  /**
+   * @return the sampled transition index, or -1 if the action has no transitions.
+   */
+  int sampleTransition(int stateAction, SplittableRandom random) {
+    int from = transitionOffsets[stateAction];
+    int to = transitionOffsets[stateAction + 1];
+    if (from == to) {
+      return -1;
+    }
+    // Scale by the actual sum to be robust against rounding
+    double value = random.nextDouble() * cumulativeProbabilities[to - 1];
+    for (int transition = from; transition < to - 1; transition++) {
+      if (cumulativeProbabilities[transition] >= value) {
+        return transition;
+      }
+    }
+    return to - 1;
+  }
+}
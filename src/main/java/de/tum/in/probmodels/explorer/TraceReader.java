@@ -0,0 +1,164 @@
+package de.tum.in.probmodels.explorer;
+
+import de.tum.in.probmodels.util.VarInts;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Reads traces written by {@link TraceWriter}. Every block is verified against its checksum
+ * before any of its records is passed on. A corrupt block is skipped by scanning forward to the
+ * next sync marker, and the dropped data is logged. A trace which ends within a block, e.g. since
+ * the recording process crashed, is read up to its last complete block.
+ *
+ * <p>Records after a dropped block may refer to states explored in the dropped one. Once data has
+ * been dropped, records rejected by the visitor with an {@link IOException} are therefore skipped
+ * and counted, too. Before that, such an exception aborts the read.</p>
+ */
+final class TraceReader {
+  interface TraceVisitor {
+    void explored(int state) throws IOException;
+
+    void sampled(int state, int action, int successor, long count) throws IOException;
+  }
+
+  private static final Logger logger = Logger.getLogger(TraceReader.class.getName());
+
+  private TraceReader() {
+    // Empty
+  }
+
+  /**
+   * @return the number of records read, without dropped ones.
+   */
+  static long read(InputStream stream, TraceVisitor visitor) throws IOException {
+    DataInputStream in = new DataInputStream(
+        stream.markSupported() ? stream : new BufferedInputStream(stream));
+    if (in.readInt() != TraceWriter.MAGIC) {
+      throw new IOException("Not a trace");
+    }
+    int version = in.readInt();
+    if (version != TraceWriter.VERSION) {
+      throw new IOException("Unsupported trace version " + version);
+    }
+
+    CRC32 checksum = new CRC32();
+    byte[] payload = new byte[0];
+    long records = 0;
+    long droppedBytes = 0;
+    long droppedBlocks = 0;
+    long rejectedRecords = 0;
+    while (true) {
+      long skipped = skipToSyncMarker(in);
+      // Negative if the stream ended before the next marker
+      long bytes = skipped < 0 ? -skipped - 1 : skipped;
+      if (bytes > 0) {
+        droppedBytes += bytes;
+        logger.log(Level.WARNING, "Skipped {0} bytes without sync marker after record {1}",
+            new Object[] {bytes, records});
+      }
+      if (skipped < 0) {
+        break;
+      }
+
+      // Everything after the marker, so that a corrupt block can be rescanned
+      in.mark(TraceWriter.MAX_BLOCK_BYTES + 2 * 5 + 4);
+      int blockRecords;
+      int length;
+      boolean valid;
+      try {
+        blockRecords = VarInts.readVarInt(in);
+        length = VarInts.readVarInt(in);
+        valid = 0 < blockRecords && blockRecords <= TraceWriter.BLOCK_RECORDS
+            && 0 <= length && length <= TraceWriter.MAX_BLOCK_BYTES;
+        if (valid) {
+          if (payload.length < length) {
+            payload = new byte[Math.max(length, 2 * payload.length)];
+          }
+          in.readFully(payload, 0, length);
+          checksum.reset();
+          checksum.update(payload, 0, length);
+          valid = in.readInt() == (int) checksum.getValue();
+        }
+      } catch (EOFException e) {
+        logger.log(Level.WARNING, "Trace truncated after record {0}", records);
+        break;
+      } catch (IOException e) {
+        // Malformed block header
+        valid = false;
+        blockRecords = 0;
+        length = 0;
+      }
+      if (!valid) {
+        droppedBlocks += 1;
+        logger.log(Level.WARNING, "Dropped corrupt block after record {0}", records);
+        in.reset();
+        continue;
+      }
+
+      DataInputStream block = new DataInputStream(new ByteArrayInputStream(payload, 0, length));
+      for (int i = 0; i < blockRecords; i++) {
+        long header = VarInts.readVarLong(block);
+        int kind = (int) (header & 3L);
+        long stateValue = header >>> 2;
+        if (stateValue > Integer.MAX_VALUE) {
+          throw new IOException("Invalid state " + stateValue);
+        }
+        int state = (int) stateValue;
+        try {
+          switch (kind) {
+            case TraceWriter.TRANSITION:
+              visitor.sampled(state, VarInts.readVarInt(block), VarInts.readVarInt(block), 1L);
+              break;
+            case TraceWriter.EXPLORATION:
+              visitor.explored(state);
+              break;
+            case TraceWriter.COUNT:
+              visitor.sampled(state, VarInts.readVarInt(block), VarInts.readVarInt(block),
+                  VarInts.readVarLong(block));
+              break;
+            default:
+              throw new IOException("Unknown record kind " + kind);
+          }
+          records += 1;
+        } catch (IOException e) {
+          if (droppedBlocks == 0 && droppedBytes == 0) {
+            throw e;
+          }
+          rejectedRecords += 1;
+        }
+      }
+    }
+    if (droppedBlocks > 0 || droppedBytes > 0) {
+      logger.log(Level.WARNING, "Dropped {0} corrupt blocks, {1} bytes without sync marker and "
+              + "{2} records not matching the model after dropped data",
+          new Object[] {droppedBlocks, droppedBytes, rejectedRecords});
+    }
+    logger.log(Level.FINE, "Read {0} trace records", records);
+    return records;
+  }
+
+  // Reads up to and including the next sync marker. Returns the number of bytes skipped before it,
+  // or -1 - n if the stream ends after n bytes without a marker
+  private static long skipToSyncMarker(DataInputStream in) throws IOException {
+    int window = 0;
+    long read = 0;
+    while (true) {
+      int next = in.read();
+      if (next == -1) {
+        return -1 - read;
+      }
+      window = (window << 8) | next;
+      read += 1;
+      if (read >= 4 && window == TraceWriter.SYNC_MARKER) {
+        return read - 4;
+      }
+    }
+  }
+}
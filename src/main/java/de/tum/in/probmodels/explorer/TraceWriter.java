@@ -0,0 +1,126 @@
+package de.tum.in.probmodels.explorer;
+
+import de.tum.in.probmodels.util.VarInts;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.CRC32;
+
+/**
+ * Records the samples drawn by an explorer in a compact binary format, see {@link TraceReader}.
+ *
+ * <p>The file starts with a magic number and version. Records are grouped into blocks of at most
+ * {@value #BLOCK_RECORDS} records, each block starts with a sync marker followed by the number of
+ * records, the payload length, the payload and its CRC32 checksum. Records are sequences of
+ * varints, the first one holds the state id shifted by two bits and the record kind (as a long,
+ * so all state ids fit):</p>
+ * <ul>
+ *   <li>{@link #TRANSITION}: followed by action and successor,</li>
+ *   <li>{@link #EXPLORATION}: the state was explored. These keep the state numbering of a
+ *   replay equal to the recorded one,</li>
+ *   <li>{@link #COUNT}: followed by action, successor and the number of samples.</li>
+ * </ul>
+ * Actions are always indices in the unfiltered model.
+ */
+final class TraceWriter implements AutoCloseable {
+  static final int MAGIC = 0x50524354; // "PRCT"
+  static final int VERSION = 1;
+  static final int SYNC_MARKER = 0xF00DFACE;
+  static final int BLOCK_RECORDS = 4096;
+  // A record has at most four varints: a long header and count of up to ten and two ints of up to
+  // five bytes each
+  static final int MAX_BLOCK_BYTES = BLOCK_RECORDS * 30;
+
+  static final int TRANSITION = 0;
+  static final int EXPLORATION = 1;
+  static final int COUNT = 2;
+
+  private final DataOutputStream out;
+  private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(1 << 14);
+  private final DataOutputStream block = new DataOutputStream(blockBytes);
+  private final CRC32 checksum = new CRC32();
+  private int blockRecords = 0;
+
+  TraceWriter(OutputStream stream) throws IOException {
+    this.out = new DataOutputStream(stream);
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+  }
+
+  void transition(int state, int action, int successor) {
+    try {
+      VarInts.writeVarLong(block, ((long) state << 2) | TRANSITION);
+      VarInts.writeVarInt(block, action);
+      VarInts.writeVarInt(block, successor);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    endRecord();
+  }
+
+  void exploration(int state) {
+    try {
+      VarInts.writeVarLong(block, ((long) state << 2) | EXPLORATION);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    endRecord();
+  }
+
+  void count(int state, int action, int successor, long count) {
+    try {
+      VarInts.writeVarLong(block, ((long) state << 2) | COUNT);
+      VarInts.writeVarInt(block, action);
+      VarInts.writeVarInt(block, successor);
+      VarInts.writeVarLong(block, count);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    endRecord();
+  }
+
+  private void endRecord() {
+    blockRecords += 1;
+    if (blockRecords == BLOCK_RECORDS) {
+      writeBlock();
+    }
+  }
+
+  private void writeBlock() {
+    if (blockRecords == 0) {
+      return;
+    }
+    checksum.reset();
+    checksum.update(blockBytes.toByteArray(), 0, blockBytes.size());
+    try {
+      out.writeInt(SYNC_MARKER);
+      VarInts.writeVarInt(out, blockRecords);
+      VarInts.writeVarInt(out, blockBytes.size());
+      blockBytes.writeTo(out);
+      out.writeInt((int) checksum.getValue());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    blockBytes.reset();
+    blockRecords = 0;
+  }
+
+  /**
+   * Writes all pending records, also those of an incomplete block.
+   */
+  void flush() throws IOException {
+    writeBlock();
+    out.flush();
+  }
+
+  @Override
+  public void close() throws IOException {
+    try {
+      flush();
+    } finally {
+      out.close();
+    }
+  }
+}
@@ -0,0 +1,213 @@
+package de.tum.in.probmodels.explorer;
+
+import de.tum.in.probmodels.model.Action;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Sample counts of state-action-successor triples in a flat primitive layout. The successors of
+ * each action are known once its state is explored, so every state-action pair is assigned a
+ * fixed slice of one contiguous {@code long[]} of counts, holding one slot per successor in
+ * ascending order. Additionally, the total count of each state-action pair is maintained.
+ * Updates and total queries do not allocate.
+ *
+ * <p>State-action pairs are numbered consecutively in the order their states are added, see
+ * {@link #stateActionIndex(int, int)}. This index can be used to attach further per state-action
+ * data in flat arrays.</p>
+ */
+public final class TransitionCounts {
+  @FunctionalInterface
+  public interface SuccessorCountConsumer {
+    void accept(int successor, long count);
+  }
+
+  // Per state id: index of its first state-action pair, or -1 if the state was not added
+  private int[] firstStateAction = new int[16];
+  // Per state id: number of actions
+  private int[] actionCounts = new int[16];
+  // Per state-action pair: offset of its slice in successors / counts. Has one additional entry
+  // marking the end of the last slice.
+  private int[] sliceOffsets = new int[17];
+  private long[] totals = new long[16];
+  // Per state-action pair: number of successors with a positive count
+  private int[] sampled = new int[16];
+  private int[] successors = new int[64];
+  private long[] counts = new long[64];
+  private int stateActionCount = 0;
+
+  public TransitionCounts() {
+    Arrays.fill(firstStateAction, -1);
+  }
+
+  /**
+   * Allocates the count slots of a state, using the supports of its actual actions.
+   */
+  public void addState(int state, List<Action> actions) {
+    assert !contains(state);
+    ensureStateCapacity(state + 1);
+    ensureStateActionCapacity(stateActionCount + actions.size());
+
+    firstStateAction[state] = stateActionCount;
+    actionCounts[state] = actions.size();
+    int offset = sliceOffsets[stateActionCount];
+    for (Action action : actions) {
+      int supportSize = action.distribution().size();
+      ensureTransitionCapacity(offset + supportSize);
+      IntIterator iterator = action.distribution().support().iterator();
+      while (iterator.hasNext()) {
+        successors[offset] = iterator.nextInt();
+        offset += 1;
+      }
+      stateActionCount += 1;
+      sliceOffsets[stateActionCount] = offset;
+    }
+  }
+
+  public boolean contains(int state) {
+    return state < firstStateAction.length && firstStateAction[state] != -1;
+  }
+
+  public int actions(int state) {
+    assert contains(state);
+    return actionCounts[state];
+  }
+
+  public int stateActionIndex(int state, int action) {
+    assert contains(state) && 0 <= action && action < actionCounts[state] : state + " " + action;
+    return firstStateAction[state] + action;
+  }
+
+  public int stateActionCount() {
+    return stateActionCount;
+  }
+
+  /**
+   * Increments the count of the given triple.
+   *
+   * @return the new count of the triple.
+   */
+  public long increment(int state, int action, int successor) {
+    return add(state, action, successor, 1L);
+  }
+
+  /**
+   * Adds the given amount to the count of the given triple.
+   *
+   * @return the new count of the triple.
+   */
+  public long add(int state, int action, int successor, long amount) {
+    int stateAction = stateActionIndex(state, action);
+    int slot = slot(stateAction, successor);
+    if (counts[slot] == 0L && amount > 0L) {
+      sampled[stateAction] += 1;
+    }
+    counts[slot] += amount;
+    totals[stateAction] += amount;
+    return counts[slot];
+  }
+
+  public void set(int state, int action, int successor, long count) {
+    int stateAction = stateActionIndex(state, action);
+    int slot = slot(stateAction, successor);
+    totals[stateAction] += count - counts[slot];
+    if ((counts[slot] > 0L) != (count > 0L)) {
+      sampled[stateAction] += count > 0L ? 1 : -1;
+    }
+    counts[slot] = count;
+  }
+
+  public long get(int state, int action, int successor) {
+    int stateAction = stateActionIndex(state, action);
+    int from = sliceOffsets[stateAction];
+    int index = Arrays.binarySearch(successors, from, sliceOffsets[stateAction + 1], successor);
+    return index < 0 ? 0L : counts[index];
+  }
+
+  public long total(int state, int action) {
+    return totals[stateActionIndex(state, action)];
+  }
+
+  /**
+   * Number of distinct successors which have been sampled at least once.
+   */
+  public int sampledSuccessors(int state, int action) {
+    return sampled[stateActionIndex(state, action)];
+  }
+
+  /**
+   * Number of actual successors, i.e. the size of the support given in {@link #addState(int, List)}.
+   */
+  public int successors(int state, int action) {
+    int stateAction = stateActionIndex(state, action);
+    return sliceOffsets[stateAction + 1] - sliceOffsets[stateAction];
+  }
+
+  /**
+   * Whether every actual successor has been sampled at least once.
+   */
+  public boolean isFullySampled(int state, int action) {
+    int stateAction = stateActionIndex(state, action);
+    return sampled[stateAction] == sliceOffsets[stateAction + 1] - sliceOffsets[stateAction];
+  }
+
+  /**
+   * Calls the consumer for all successors with a positive count, in ascending order.
+   */
+  public void forEach(int state, int action, SuccessorCountConsumer consumer) {
+    int stateAction = stateActionIndex(state, action);
+    for (int slot = sliceOffsets[stateAction]; slot < sliceOffsets[stateAction + 1]; slot++) {
+      long count = counts[slot];
+      if (count > 0L) {
+        consumer.accept(successors[slot], count);
+      }
+    }
+  }
+
+  private int slot(int stateAction, int successor) {
+    int from = sliceOffsets[stateAction];
+    int to = sliceOffsets[stateAction + 1];
+    // Supports are usually tiny, a linear scan beats binary search there
+    if (to - from <= 8) {
+      for (int slot = from; slot < to; slot++) {
+        if (successors[slot] == successor) {
+          return slot;
+        }
+      }
+    } else {
+      int index = Arrays.binarySearch(successors, from, to, successor);
+      if (index >= 0) {
+        return index;
+      }
+    }
+    throw new IllegalArgumentException(String.format("%d is not a successor of state-action %d",
+        successor, stateAction));
+  }
+
+  private void ensureStateCapacity(int capacity) {
+    if (capacity > firstStateAction.length) {
+      int oldLength = firstStateAction.length;
+      int newLength = Math.max(capacity, oldLength * 2);
+      firstStateAction = Arrays.copyOf(firstStateAction, newLength);
+      Arrays.fill(firstStateAction, oldLength, newLength, -1);
+      actionCounts = Arrays.copyOf(actionCounts, newLength);
+    }
+  }
+
+  private void ensureStateActionCapacity(int capacity) {
+    if (capacity >= totals.length) {
+      int newLength = Math.max(capacity + 1, totals.length * 2);
+      totals = Arrays.copyOf(totals, newLength);
+      sampled = Arrays.copyOf(sampled, newLength);
+      sliceOffsets = Arrays.copyOf(sliceOffsets, newLength + 1);
+    }
+  }
+
+  private void ensureTransitionCapacity(int capacity) {
+    if (capacity > successors.length) {
+      int newLength = Math.max(capacity, successors.length * 2);
+      successors = Arrays.copyOf(successors, newLength);
+      counts = Arrays.copyOf(counts, newLength);
+    }
+  }
+}
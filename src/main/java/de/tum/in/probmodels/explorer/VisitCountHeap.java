@@ -0,0 +1,83 @@
+package de.tum.in.probmodels.explorer;
+
+/**
+ * Indexed binary min-heap over the visit counts of a fixed number of elements (typically the
+ * state-action pairs of a {@link MecWalk}). The least visited element is available in constant
+ * time, incrementing a count takes logarithmic time.
+ */
+final class VisitCountHeap {
+  private final long[] counts;
+  // heap[i] is the element at heap position i, position[e] the heap position of element e
+  private final int[] heap;
+  private final int[] position;
+
+  VisitCountHeap(long[] initialCounts) {
+    int size = initialCounts.length;
+    this.counts = initialCounts.clone();
+    this.heap = new int[size];
+    this.position = new int[size];
+    for (int i = 0; i < size; i++) {
+      heap[i] = i;
+      position[i] = i;
+    }
+    for (int i = size / 2 - 1; i >= 0; i--) {
+      siftDown(i);
+    }
+  }
+
+  int size() {
+    return heap.length;
+  }
+
+  long count(int element) {
+    return counts[element];
+  }
+
+  /**
+   * @return the element with the least count, or -1 if the heap is empty.
+   */
+  int minElement() {
+    return heap.length == 0 ? -1 : heap[0];
+  }
+
+  /**
+   * @return the least count, or {@link Long#MAX_VALUE} if the heap is empty.
+   */
+  long minCount() {
+    return heap.length == 0 ? Long.MAX_VALUE : counts[heap[0]];
+  }
+
+  void increment(int element) {
+    add(element, 1L);
+  }
+
+  void add(int element, long amount) {
+    assert amount >= 0;
+    counts[element] += amount;
+    // Counts only grow, so the element can only move down
+    siftDown(position[element]);
+  }
+
+  private void siftDown(int index) {
+    int element = heap[index];
+    long count = counts[element];
+    int size = heap.length;
+    while (true) {
+      int child = 2 * index + 1;
+      if (child >= size) {
+        break;
+      }
+      if (child + 1 < size && counts[heap[child + 1]] < counts[heap[child]]) {
+        child += 1;
+      }
+      if (counts[heap[child]] >= count) {
+        break;
+      }
+      heap[index] = heap[child];
+      position[heap[index]] = index;
+      index = child;
+    }
+    heap[index] = element;
+    position[element] = index;
+  }
+}
@@ -0,0 +1,226 @@
+package de.tum.in.probmodels.generator;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import it.unimi.dsi.fastutil.objects.Object2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Generator decorator which caches the choices of recently expanded states. Choices are stored
+ * in a flat array encoding and the cache is bounded by the total number of stored transitions.
+ * Entries are evicted with the CLOCK (second chance) approximation of LRU.
+ *
+ * <p>Not thread safe.</p>
+ */
+public class CachingGenerator<S> implements Generator<S> {
+  private static final int INITIAL_SLOTS = 16;
+
+  private final Generator<S> delegate;
+  private final long maxTransitions;
+
+  private final Object2IntMap<S> slotOfState = new Object2IntOpenHashMap<>();
+  private Object[] slotStates = new Object[INITIAL_SLOTS];
+  private EncodedChoices[] slotChoices = new EncodedChoices[INITIAL_SLOTS];
+  private boolean[] referenced = new boolean[INITIAL_SLOTS];
+  private final IntArrayList freeSlots = new IntArrayList();
+  private int usedSlots = 0;
+  private int clockHand = 0;
+  private long cachedTransitions = 0;
+
+  private long hits = 0;
+  private long misses = 0;
+  private long evictions = 0;
+
+  public CachingGenerator(Generator<S> delegate, long maxTransitions) {
+    checkArgument(maxTransitions > 0, "Cache size must be positive, got %s", maxTransitions);
+    this.delegate = delegate;
+    this.maxTransitions = maxTransitions;
+    slotOfState.defaultReturnValue(-1);
+  }
+
+  @Override
+  public Collection<S> initialStates() {
+    return delegate.initialStates();
+  }
+
+  @Override
+  public Collection<Choice<S>> choices(S state) {
+    int slot = slotOfState.getInt(state);
+    if (slot != -1) {
+      hits += 1;
+      referenced[slot] = true;
+      return slotChoices[slot].decode();
+    }
+
+    misses += 1;
+    Collection<Choice<S>> choices = delegate.choices(state);
+    EncodedChoices encoded = EncodedChoices.encode(choices);
+    if (encoded.weight() <= maxTransitions) {
+      insert(state, encoded);
+    }
+    return choices;
+  }
+
+  private void insert(S state, EncodedChoices encoded) {
+    while (cachedTransitions + encoded.weight() > maxTransitions) {
+      evictOne();
+    }
+
+    int slot = freeSlot();
+    slotStates[slot] = state;
+    slotChoices[slot] = encoded;
+    // New entries start without the reference bit, so a burst of one-off states is evicted first
+    referenced[slot] = false;
+    slotOfState.put(state, slot);
+    cachedTransitions += encoded.weight();
+  }
+
+  private int freeSlot() {
+    if (!freeSlots.isEmpty()) {
+      return freeSlots.popInt();
+    }
+    if (usedSlots == slotStates.length) {
+      int newLength = slotStates.length * 2;
+      slotStates = Arrays.copyOf(slotStates, newLength);
+      slotChoices = Arrays.copyOf(slotChoices, newLength);
+      referenced = Arrays.copyOf(referenced, newLength);
+    }
+    int slot = usedSlots;
+    usedSlots += 1;
+    return slot;
+  }
+
+  private void evictOne() {
+    assert !slotOfState.isEmpty();
+    while (true) {
+      int slot = clockHand;
+      clockHand = clockHand + 1 == usedSlots ? 0 : clockHand + 1;
+      if (slotStates[slot] == null) {
+        continue;
+      }
+      if (referenced[slot]) {
+        referenced[slot] = false;
+        continue;
+      }
+
+      slotOfState.removeInt(slotStates[slot]);
+      cachedTransitions -= slotChoices[slot].weight();
+      slotStates[slot] = null;
+      slotChoices[slot] = null;
+      freeSlots.push(slot);
+      evictions += 1;
+      return;
+    }
+  }
+
+  public void clear() {
+    slotOfState.clear();
+    Arrays.fill(slotStates, null);
+    Arrays.fill(slotChoices, null);
+    Arrays.fill(referenced, false);
+    freeSlots.clear();
+    usedSlots = 0;
+    clockHand = 0;
+    cachedTransitions = 0;
+  }
+
+  public long hits() {
+    return hits;
+  }
+
+  public long misses() {
+    return misses;
+  }
+
+  public long evictions() {
+    return evictions;
+  }
+
+  public int cachedStates() {
+    return slotOfState.size();
+  }
+
+  public long cachedTransitions() {
+    return cachedTransitions;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("CachingGen(%s, %d transitions, %d/%d hits/misses)",
+        delegate, maxTransitions, hits, misses);
+  }
+
+  // Choices of a single state: the transitions of choice i are stored in the index range
+  // offsets[i] until offsets[i + 1] of successors and probabilities.
+  private static final class EncodedChoices {
+    private final Object[] labels;
+    private final int[] offsets;
+    private final Object[] successors;
+    private final double[] probabilities;
+
+    @SuppressWarnings("PMD.ArrayIsStoredDirectly")
+    private EncodedChoices(Object[] labels, int[] offsets, Object[] successors,
+        double[] probabilities) {
+      this.labels = labels;
+      this.offsets = offsets;
+      this.successors = successors;
+      this.probabilities = probabilities;
+    }
+
+    static <S> EncodedChoices encode(Collection<Choice<S>> choices) {
+      int choiceCount = choices.size();
+      int transitionCount = 0;
+      for (Choice<S> choice : choices) {
+        transitionCount += choice.transitions().size();
+      }
+
+      Object[] labels = new Object[choiceCount];
+      int[] offsets = new int[choiceCount + 1];
+      Object[] successors = new Object[transitionCount];
+      double[] probabilities = new double[transitionCount];
+
+      int choiceIndex = 0;
+      int transitionIndex = 0;
+      for (Choice<S> choice : choices) {
+        labels[choiceIndex] = choice.label();
+        offsets[choiceIndex] = transitionIndex;
+        for (Object2DoubleMap.Entry<S> entry : choice.transitions().object2DoubleEntrySet()) {
+          successors[transitionIndex] = entry.getKey();
+          probabilities[transitionIndex] = entry.getDoubleValue();
+          transitionIndex += 1;
+        }
+        choiceIndex += 1;
+      }
+      offsets[choiceCount] = transitionIndex;
+      return new EncodedChoices(labels, offsets, successors, probabilities);
+    }
+
+    int weight() {
+      // Each choice counts as one transition, so states without successors still occupy space
+      return successors.length + labels.length;
+    }
+
+    @SuppressWarnings("unchecked")
+    <S> List<Choice<S>> decode() {
+      List<Choice<S>> choices = new ArrayList<>(labels.length);
+      for (int choiceIndex = 0; choiceIndex < labels.length; choiceIndex++) {
+        int from = offsets[choiceIndex];
+        int to = offsets[choiceIndex + 1];
+        Object2DoubleMap<S> map = new Object2DoubleOpenHashMap<>(to - from);
+        map.defaultReturnValue(Double.NaN);
+        for (int i = from; i < to; i++) {
+          map.put((S) successors[i], probabilities[i]);
+        }
+        choices.add(Choice.of(labels[choiceIndex], map));
+      }
+      return choices;
+    }
+  }
+}
@@ -1,9 +1,24 @@
 package de.tum.in.probmodels.generator;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 public interface Generator<S> {
   Collection<S> initialStates();
 
   Collection<Choice<S>> choices(S state);
+
+  /**
+   * Computes the choices of several states at once. The i-th element of the result holds the
+   * choices of the i-th given state. Implementations may override this to amortise per-call
+   * overhead; the default simply delegates to {@link #choices(Object)}.
+   */
+  default List<Collection<Choice<S>>> choicesBatch(List<S> states) {
+    List<Collection<Choice<S>>> choices = new ArrayList<>(states.size());
+    for (S state : states) {
+      choices.add(choices(state));
+    }
+    return choices;
+  }
 }
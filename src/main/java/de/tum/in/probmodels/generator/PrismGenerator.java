@@ -4,8 +4,10 @@ import de.tum.in.probmodels.util.PrismWrappedException;
 import it.unimi.dsi.fastutil.objects.AbstractObject2DoubleMap;
 import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
 import java.util.AbstractCollection;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 import parser.State;
 import prism.ModelGenerator;
@@ -40,6 +42,19 @@ public abstract class PrismGenerator implements Generator<State> {
     }
   }
 
+  @Override
+  public final List<Collection<Choice<State>>> choicesBatch(List<State> states) {
+    List<Collection<Choice<State>>> choices = new ArrayList<>(states.size());
+    try {
+      for (State state : states) {
+        choices.add(getChoices(state));
+      }
+    } catch (PrismException e) {
+      throw new PrismWrappedException(e);
+    }
+    return choices;
+  }
+
   protected abstract Collection<Choice<State>> getChoices(State state) throws PrismException;
 
   protected Collection<Object2DoubleMap.Entry<State>> transitions(int choiceIndex, int count) {
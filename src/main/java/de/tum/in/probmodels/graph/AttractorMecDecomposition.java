@@ -0,0 +1,359 @@
+package de.tum.in.probmodels.graph;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.Model;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Deterministic MEC decomposition by repeated SCC decomposition and backward attractor removal,
+ * see {@link EndComponentDecomposition#computeComponents(Model, NatBitSet, MecAlgorithm,
+ * CancellationToken)}.
+ *
+ * <p>The restricted model is copied once into arrays over a dense local numbering, together with
+ * an index from each state to the actions having it as successor. A part of the graph is
+ * decomposed into SCCs, all actions leaving their SCC are removed and the removal is propagated
+ * backwards: states without actions are removed, and so are all actions leading to them. Since
+ * the index yields these actions directly, every action is removed at most once over the whole
+ * run, instead of being re-checked in each fixpoint iteration of {@link Mec#create(Model,
+ * NatBitSet)}. SCCs which lost neither a state nor an action with an edge inside are MECs, only
+ * the remainders of the others are decomposed again.</p>
+ */
+final class AttractorMecDecomposition {
+  private final Model model;
+  private final CancellationToken cancellation;
+
+  private final int[] states;
+  private final int stateCount;
+  // The actions of local state s are actionOffsets[s] until actionOffsets[s + 1]. The edges of
+  // action a go to edgeTarget[edgeOffsets[a]] until edgeTarget[edgeOffsets[a + 1]], hence all
+  // edges of a state are consecutive, too
+  private final int[] actionOffsets;
+  private final int[] actionState;
+  private final int[] edgeOffsets;
+  private final int[] edgeTarget;
+  private final int[] edgeAction;
+  // The actions with local state t as successor are predecessorAction[predecessorOffsets[t]] until
+  // predecessorAction[predecessorOffsets[t + 1]]
+  private final int[] predecessorOffsets;
+  private final int[] predecessorAction;
+
+  private final BitSet removedActions = new BitSet();
+  private final BitSet removedStates = new BitSet();
+  private final int[] remainingActions;
+  private final IntArrayList removalQueue = new IntArrayList();
+
+  // The part or SCC each state currently belongs to
+  private final int[] label;
+  private int labelCount = 0;
+  private final BitSet changedLabels = new BitSet();
+
+  // Tarjan
+  private final int[] tarjanIndex;
+  private final int[] lowLink;
+  private final int[] cursor;
+  private final int[] stack;
+  private final int[] callStack;
+
+  private AttractorMecDecomposition(Model model, NatBitSet restriction,
+      CancellationToken cancellation) {
+    this.model = model;
+    this.cancellation = cancellation;
+
+    stateCount = restriction.size();
+    states = new int[stateCount];
+    Int2IntOpenHashMap localIds = new Int2IntOpenHashMap(stateCount);
+    localIds.defaultReturnValue(-1);
+    IntIterator iterator = restriction.iterator();
+    for (int local = 0; local < stateCount; local++) {
+      int state = iterator.nextInt();
+      states[local] = state;
+      localIds.put(state, local);
+    }
+
+    actionOffsets = new int[stateCount + 1];
+    IntArrayList actionStates = new IntArrayList();
+    IntArrayList offsets = new IntArrayList();
+    IntArrayList targets = new IntArrayList();
+    IntArrayList leaving = new IntArrayList();
+    for (int local = 0; local < stateCount; local++) {
+      actionOffsets[local] = actionStates.size();
+      List<Distribution> choices = model.getChoices(states[local]);
+      if (choices == null) {
+        continue;
+      }
+      for (Distribution choice : choices) {
+        int action = actionStates.size();
+        actionStates.add(local);
+        offsets.add(targets.size());
+        IntIterator successors = choice.support().iterator();
+        while (successors.hasNext()) {
+          int target = localIds.get(successors.nextInt());
+          if (target == -1) {
+            // Leaves the restriction, no need to store its edges
+            targets.size(offsets.getInt(action));
+            leaving.add(action);
+            break;
+          }
+          targets.add(target);
+        }
+      }
+    }
+    actionOffsets[stateCount] = actionStates.size();
+    int actionCount = actionStates.size();
+    offsets.add(targets.size());
+    actionState = actionStates.toIntArray();
+    edgeOffsets = offsets.toIntArray();
+    edgeTarget = targets.toIntArray();
+
+    int edgeCount = edgeTarget.length;
+    edgeAction = new int[edgeCount];
+    predecessorOffsets = new int[stateCount + 1];
+    for (int action = 0; action < actionCount; action++) {
+      for (int edge = edgeOffsets[action]; edge < edgeOffsets[action + 1]; edge++) {
+        edgeAction[edge] = action;
+        predecessorOffsets[edgeTarget[edge] + 1] += 1;
+      }
+    }
+    for (int local = 0; local < stateCount; local++) {
+      predecessorOffsets[local + 1] += predecessorOffsets[local];
+    }
+    predecessorAction = new int[edgeCount];
+    int[] position = Arrays.copyOf(predecessorOffsets, stateCount);
+    for (int edge = 0; edge < edgeCount; edge++) {
+      predecessorAction[position[edgeTarget[edge]]++] = edgeAction[edge];
+    }
+
+    remainingActions = new int[stateCount];
+    for (int local = 0; local < stateCount; local++) {
+      remainingActions[local] = actionOffsets[local + 1] - actionOffsets[local];
+    }
+    label = new int[stateCount];
+    tarjanIndex = new int[stateCount];
+    lowLink = new int[stateCount];
+    cursor = new int[stateCount];
+    stack = new int[stateCount];
+    callStack = new int[stateCount];
+
+    leaving.forEach((int action) -> removalQueue.add(action));
+    for (int local = 0; local < stateCount; local++) {
+      if (remainingActions[local] == 0) {
+        removeState(local);
+      }
+    }
+    propagateRemovals();
+  }
+
+  static List<Mec> computeComponents(Model model, NatBitSet restriction,
+      CancellationToken cancellation) {
+    return new AttractorMecDecomposition(model, restriction, cancellation).run();
+  }
+
+  private List<Mec> run() {
+    List<Mec> mecs = new ArrayList<>();
+    Deque<int[]> workList = new ArrayDeque<>();
+
+    int[] initialPart = remainingStates(0, stateCount, null);
+    if (initialPart.length > 0) {
+      labelCount = 1;
+      workList.add(initialPart);
+    }
+
+    IntArrayList sccStarts = new IntArrayList();
+    int[] members = new int[stateCount];
+    while (!workList.isEmpty()) {
+      if (cancellation.checkNow()) {
+        throw new CancelledException(Collections.unmodifiableList(mecs));
+      }
+      int[] part = workList.remove();
+
+      // Split into SCCs, members holds the SCCs consecutively
+      sccStarts.clear();
+      int memberCount = tarjan(part, members, sccStarts);
+      sccStarts.add(memberCount);
+
+      // Remove all actions leaving their SCC and everything attracted by that
+      for (int member = 0; member < memberCount; member++) {
+        int state = members[member];
+        for (int action = actionOffsets[state]; action < actionOffsets[state + 1]; action++) {
+          if (!removedActions.get(action) && leavesComponent(action, label[state])) {
+            removalQueue.add(action);
+          }
+        }
+      }
+      propagateRemovals();
+
+      for (int scc = 0; scc < sccStarts.size() - 1; scc++) {
+        int from = sccStarts.getInt(scc);
+        int to = sccStarts.getInt(scc + 1);
+        int sccLabel = label[members[from]];
+        if (changedLabels.get(sccLabel)) {
+          int[] remainder = remainingStates(from, to, members);
+          if (remainder.length > 0) {
+            int partLabel = labelCount++;
+            for (int state : remainder) {
+              label[state] = partLabel;
+            }
+            workList.add(remainder);
+          }
+        } else {
+          NatBitSet mecStates = NatBitSets.set();
+          for (int member = from; member < to; member++) {
+            assert !removedStates.get(members[member]);
+            mecStates.set(states[members[member]]);
+          }
+          // A single pass, since all remaining actions of the states stay inside
+          Mec mec = Mec.create(model, mecStates);
+          assert mec.states.size() == to - from;
+          mecs.add(mec);
+        }
+      }
+    }
+    return mecs;
+  }
+
+  // Remaining states of members[from] to members[to], or of the local states if members is null
+  private int[] remainingStates(int from, int to, int[] members) {
+    IntArrayList remaining = new IntArrayList(to - from);
+    for (int position = from; position < to; position++) {
+      int state = members == null ? position : members[position];
+      if (!removedStates.get(state)) {
+        remaining.add(state);
+      }
+    }
+    return remaining.toIntArray();
+  }
+
+  private boolean leavesComponent(int action, int componentLabel) {
+    for (int edge = edgeOffsets[action]; edge < edgeOffsets[action + 1]; edge++) {
+      int target = edgeTarget[edge];
+      if (removedStates.get(target) || label[target] != componentLabel) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean hasInternalEdge(int action, int componentLabel) {
+    for (int edge = edgeOffsets[action]; edge < edgeOffsets[action + 1]; edge++) {
+      int target = edgeTarget[edge];
+      if (!removedStates.get(target) && label[target] == componentLabel) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private void propagateRemovals() {
+    while (!removalQueue.isEmpty()) {
+      int action = removalQueue.popInt();
+      if (removedActions.get(action)) {
+        continue;
+      }
+      removedActions.set(action);
+      int state = actionState[action];
+      if (hasInternalEdge(action, label[state])) {
+        // The SCC may have been connected through this action
+        changedLabels.set(label[state]);
+      }
+      remainingActions[state] -= 1;
+      if (remainingActions[state] == 0) {
+        removeState(state);
+      }
+    }
+  }
+
+  private void removeState(int state) {
+    assert !removedStates.get(state);
+    removedStates.set(state);
+    changedLabels.set(label[state]);
+    for (int index = predecessorOffsets[state]; index < predecessorOffsets[state + 1]; index++) {
+      int action = predecessorAction[index];
+      if (!removedActions.get(action)) {
+        removalQueue.add(action);
+      }
+    }
+  }
+
+  // Iterative Tarjan on the given part, writes the SCCs consecutively into members in the order
+  // they are found, gives each a fresh label and returns the number of members
+  private int tarjan(int[] part, int[] members, IntArrayList sccStarts) {
+    int partLabel = label[part[0]];
+    for (int state : part) {
+      tarjanIndex[state] = -1;
+    }
+
+    int index = 0;
+    int memberCount = 0;
+    int stackSize = 0;
+    for (int root : part) {
+      if (tarjanIndex[root] != -1) {
+        continue;
+      }
+      int callStackSize = 0;
+      tarjanIndex[root] = index;
+      lowLink[root] = index;
+      index += 1;
+      cursor[root] = edgeOffsets[actionOffsets[root]];
+      stack[stackSize++] = root;
+      callStack[callStackSize++] = root;
+
+      while (callStackSize > 0) {
+        int state = callStack[callStackSize - 1];
+        int end = edgeOffsets[actionOffsets[state + 1]];
+        if (cursor[state] < end) {
+          int edge = cursor[state];
+          cursor[state] += 1;
+          int target = edgeTarget[edge];
+          // Targets in another part are reached only by actions which are removed already
+          if (removedActions.get(edgeAction[edge]) || label[target] != partLabel) {
+            continue;
+          }
+          if (tarjanIndex[target] == -1) {
+            tarjanIndex[target] = index;
+            lowLink[target] = index;
+            index += 1;
+            cursor[target] = edgeOffsets[actionOffsets[target]];
+            stack[stackSize++] = target;
+            callStack[callStackSize++] = target;
+          } else if (tarjanIndex[target] < lowLink[state]) {
+            // Visited and still labelled with the part, hence on the stack
+            lowLink[state] = tarjanIndex[target];
+          }
+          continue;
+        }
+
+        callStackSize -= 1;
+        if (callStackSize > 0) {
+          int parent = callStack[callStackSize - 1];
+          if (lowLink[state] < lowLink[parent]) {
+            lowLink[parent] = lowLink[state];
+          }
+        }
+        if (lowLink[state] == tarjanIndex[state]) {
+          int sccLabel = labelCount++;
+          sccStarts.add(memberCount);
+          int member;
+          do {
+            member = stack[--stackSize];
+            label[member] = sccLabel;
+            members[memberCount++] = member;
+          } while (member != state);
+        }
+      }
+    }
+    return memberCount;
+  }
+}
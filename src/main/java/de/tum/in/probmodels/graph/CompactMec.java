@@ -0,0 +1,150 @@
+package de.tum.in.probmodels.graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+/**
+ * Immutable flat layout of a {@link Mec}: the states in ascending order and the action indices of
+ * all states in one array, where the actions of the state with index {@code i} are
+ * {@code actions[actionOffsets[i]]} until {@code actions[actionOffsets[i + 1]]}, also ascending.
+ * Needs about three ints per state and one per action instead of a hash map entry and a bit set
+ * per state, and allows choosing a random action in constant time without boxing.
+ *
+ * <p>States are addressed either by their index in this layout or by their number in the model,
+ * {@link #indexOf(int)} converts by binary search.</p>
+ */
+public final class CompactMec {
+  private final int[] states;
+  private final int[] actionOffsets;
+  private final int[] actions;
+
+  private CompactMec(int[] states, int[] actionOffsets, int[] actions) {
+    this.states = states;
+    this.actionOffsets = actionOffsets;
+    this.actions = actions;
+  }
+
+  public static CompactMec of(Mec mec) {
+    int stateCount = mec.states.size();
+    int[] states = new int[stateCount];
+    int[] actionOffsets = new int[stateCount + 1];
+    int actionCount = 0;
+    IntIterator iterator = mec.states.iterator();
+    for (int index = 0; index < stateCount; index++) {
+      int state = iterator.nextInt();
+      states[index] = state;
+      actionCount += mec.actions.get(state).size();
+    }
+    // Natural numbers are iterated in ascending order
+    assert isAscending(states, 0, stateCount);
+
+    int[] actions = new int[actionCount];
+    int position = 0;
+    for (int index = 0; index < stateCount; index++) {
+      actionOffsets[index] = position;
+      IntIterator actionIterator = mec.actions.get(states[index]).iterator();
+      while (actionIterator.hasNext()) {
+        actions[position] = actionIterator.nextInt();
+        position += 1;
+      }
+      if (!isAscending(actions, actionOffsets[index], position)) {
+        Arrays.sort(actions, actionOffsets[index], position);
+      }
+      checkArgument(position > actionOffsets[index], "State %s has no actions", states[index]);
+    }
+    actionOffsets[stateCount] = position;
+    return new CompactMec(states, actionOffsets, actions);
+  }
+
+  private static boolean isAscending(int[] array, int from, int to) {
+    for (int i = from + 1; i < to; i++) {
+      if (array[i - 1] >= array[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public int size() {
+    return states.length;
+  }
+
+  public int state(int index) {
+    return states[index];
+  }
+
+  /**
+   * @return the index of the given state or a negative value if it is not part of the MEC.
+   */
+  public int indexOf(int state) {
+    return Arrays.binarySearch(states, state);
+  }
+
+  public boolean contains(int state) {
+    return indexOf(state) >= 0;
+  }
+
+  public int stateActionCount() {
+    return actions.length;
+  }
+
+  public int actionCount(int index) {
+    return actionOffsets[index + 1] - actionOffsets[index];
+  }
+
+  /**
+   * @return the {@code position}-th action of the state with the given index.
+   */
+  public int action(int index, int position) {
+    assert 0 <= position && position < actionCount(index);
+    return actions[actionOffsets[index] + position];
+  }
+
+  public boolean containsAction(int index, int action) {
+    return Arrays.binarySearch(actions, actionOffsets[index], actionOffsets[index + 1], action) >= 0;
+  }
+
+  /**
+   * @return a uniformly chosen action of the state with the given index.
+   */
+  public int randomAction(int index, SplittableRandom random) {
+    int from = actionOffsets[index];
+    int count = actionOffsets[index + 1] - from;
+    return actions[count == 1 ? from : from + random.nextInt(count)];
+  }
+
+  public NatBitSet stateSet() {
+    NatBitSet set = NatBitSets.set();
+    for (int state : states) {
+      set.set(state);
+    }
+    return set;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (o == null || getClass() != o.getClass()) {
+      return false;
+    }
+    CompactMec other = (CompactMec) o;
+    return Arrays.equals(states, other.states);
+  }
+
+  @Override
+  public int hashCode() {
+    return Arrays.hashCode(states);
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(states);
+  }
+}
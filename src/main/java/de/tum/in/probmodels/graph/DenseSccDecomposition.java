@@ -0,0 +1,260 @@
+package de.tum.in.probmodels.graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
+import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.function.IntPredicate;
+
+/**
+ * Tarjan's algorithm for graphs whose states are numbered densely from {@code 0} to
+ * {@code n - 1}, see {@link SccDecomposition#computeSccsDense(Int2ObjectFunction, int,
+ * IntCollection, IntPredicate, boolean, CancellationToken)}. All per-state information is kept in
+ * arrays indexed by the state and the call stack is a plain array, so apart from the resulting
+ * SCCs (and the successor iterators if the graph is given by a function) nothing is allocated
+ * during the search. Produces the same SCCs in the same order as {@link SccDecomposition}.
+ */
+abstract class DenseSccDecomposition {
+  private final int numStates;
+  private final IntPredicate restriction;
+  private final boolean includeTransient;
+  private final boolean bottomOnly;
+  private final int maximalSccs;
+  private final CancellationToken cancellation;
+
+  // Tarjan index or -1 if not yet visited, a state is on the stack iff visited and not processed
+  private final int[] index;
+  private final int[] lowLink;
+  private final BitSet processed;
+  private final BitSet selfLoops = new BitSet();
+  // Whether some state of the SCC of the state found so far has an edge leaving the SCC
+  private final BitSet leaving = new BitSet();
+  private final int[] stack;
+  private int stackSize = 0;
+  private final int[] callStack;
+  private int callStackSize = 0;
+  private int nextIndex = 0;
+  private final List<NatBitSet> sccs = new ArrayList<>();
+
+  DenseSccDecomposition(int numStates, IntPredicate restriction, boolean includeTransient,
+      boolean bottomOnly, int maximalSccs, CancellationToken cancellation) {
+    checkArgument(numStates >= 0, "Invalid number of states %s", numStates);
+    this.numStates = numStates;
+    this.restriction = restriction;
+    this.includeTransient = includeTransient;
+    this.bottomOnly = bottomOnly;
+    this.maximalSccs = maximalSccs;
+    this.cancellation = cancellation;
+
+    index = new int[numStates];
+    Arrays.fill(index, -1);
+    lowLink = new int[numStates];
+    processed = new BitSet(numStates);
+    stack = new int[numStates];
+    callStack = new int[numStates];
+  }
+
+  static DenseSccDecomposition ofFunction(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> successorFunction, int numStates,
+      IntPredicate restriction, boolean includeTransient, boolean bottomOnly, int maximalSccs,
+      CancellationToken cancellation) {
+    return new FunctionDecomposition(successorFunction, numStates, restriction, includeTransient,
+        bottomOnly, maximalSccs, cancellation);
+  }
+
+  static DenseSccDecomposition ofArrays(int[] offsets, int[] successors, IntPredicate restriction,
+      boolean includeTransient, boolean bottomOnly, int maximalSccs,
+      CancellationToken cancellation) {
+    checkArgument(offsets.length > 0 && offsets[0] == 0
+        && offsets[offsets.length - 1] <= successors.length, "Invalid offsets");
+    return new ArrayDecomposition(offsets, successors, restriction, includeTransient, bottomOnly,
+        maximalSccs, cancellation);
+  }
+
+  // Prepares the iteration over the successors of the state
+  abstract void startSuccessors(int state);
+
+  // The next successor of the state or -1 if there is none left
+  abstract int nextSuccessor(int state);
+
+  // Releases the iteration state of the state
+  void finishSuccessors(int state) {
+    // Nothing to do by default
+  }
+
+  List<NatBitSet> run(IntCollection initialStates) {
+    PrimitiveIterator.OfInt iterator = initialStates.iterator();
+    while (iterator.hasNext() && sccs.size() < maximalSccs) {
+      int initialState = iterator.nextInt();
+      checkArgument(0 <= initialState && initialState < numStates, "Invalid state %s",
+          initialState);
+      if (restriction.test(initialState) && index[initialState] == -1) {
+        search(initialState);
+      }
+    }
+    return Collections.unmodifiableList(sccs);
+  }
+
+  private void visit(int state) {
+    assert index[state] == -1 && restriction.test(state);
+    index[state] = nextIndex;
+    lowLink[state] = nextIndex;
+    nextIndex += 1;
+    stack[stackSize++] = state;
+    callStack[callStackSize++] = state;
+    startSuccessors(state);
+  }
+
+  private void search(int initial) {
+    visit(initial);
+
+    while (callStackSize > 0) {
+      if (cancellation.isCancelled()) {
+        throw new CancelledException(Collections.unmodifiableList(sccs));
+      }
+      int state = callStack[callStackSize - 1];
+
+      int successor = nextSuccessor(state);
+      boolean descended = false;
+      while (successor != -1) {
+        if (successor == state) {
+          selfLoops.set(state);
+        } else if (processed.get(successor) || !restriction.test(successor)) {
+          leaving.set(state);
+        } else if (index[successor] == -1) {
+          visit(successor);
+          descended = true;
+          break;
+        } else if (index[successor] < lowLink[state]) {
+          // Not processed but visited, hence on the stack
+          lowLink[state] = index[successor];
+        }
+        successor = nextSuccessor(state);
+      }
+      if (descended) {
+        continue;
+      }
+
+      finishSuccessors(state);
+      callStackSize -= 1;
+      int parent = callStackSize > 0 ? callStack[callStackSize - 1] : -1;
+
+      if (lowLink[state] < index[state]) {
+        // Non-root element, the parent belongs to the same SCC
+        assert parent != -1;
+        if (lowLink[state] < lowLink[parent]) {
+          lowLink[parent] = lowLink[state];
+        }
+        if (leaving.get(state)) {
+          leaving.set(parent);
+        }
+        continue;
+      }
+
+      // Root of an SCC, the parent (if any) has an edge into it
+      if (parent != -1) {
+        leaving.set(parent);
+      }
+      int start = stackSize - 1;
+      while (stack[start] != state) {
+        start -= 1;
+      }
+      boolean singleton = start == stackSize - 1;
+      boolean skip = (singleton && !selfLoops.get(state) && !includeTransient)
+          || (bottomOnly && leaving.get(state));
+      NatBitSet scc = null;
+      if (!skip) {
+        scc = singleton ? NatBitSets.singleton(state) : NatBitSets.set();
+      }
+      for (int position = start; position < stackSize; position++) {
+        int member = stack[position];
+        processed.set(member);
+        if (scc != null && !singleton) {
+          scc.add(member);
+        }
+      }
+      stackSize = start;
+      if (scc != null) {
+        sccs.add(scc);
+        if (sccs.size() >= maximalSccs) {
+          // Abandon the remaining search
+          callStackSize = 0;
+          stackSize = 0;
+          return;
+        }
+      }
+    }
+    assert stackSize == 0;
+  }
+
+  private static final class FunctionDecomposition extends DenseSccDecomposition {
+    private final Int2ObjectFunction<? extends PrimitiveIterator.OfInt> successorFunction;
+    private final PrimitiveIterator.OfInt[] iterators;
+
+    FunctionDecomposition(
+        Int2ObjectFunction<? extends PrimitiveIterator.OfInt> successorFunction, int numStates,
+        IntPredicate restriction, boolean includeTransient, boolean bottomOnly, int maximalSccs,
+        CancellationToken cancellation) {
+      super(numStates, restriction, includeTransient, bottomOnly, maximalSccs, cancellation);
+      this.successorFunction = successorFunction;
+      this.iterators = new PrimitiveIterator.OfInt[numStates];
+    }
+
+    @Override
+    void startSuccessors(int state) {
+      iterators[state] = successorFunction.apply(state);
+    }
+
+    @Override
+    int nextSuccessor(int state) {
+      PrimitiveIterator.OfInt iterator = iterators[state];
+      return iterator.hasNext() ? iterator.nextInt() : -1;
+    }
+
+    @Override
+    void finishSuccessors(int state) {
+      iterators[state] = null;
+    }
+  }
+
+  private static final class ArrayDecomposition extends DenseSccDecomposition {
+    private final int[] offsets;
+    private final int[] successors;
+    private final int[] cursor;
+
+    ArrayDecomposition(int[] offsets, int[] successors, IntPredicate restriction,
+        boolean includeTransient, boolean bottomOnly, int maximalSccs,
+        CancellationToken cancellation) {
+      super(offsets.length - 1, restriction, includeTransient, bottomOnly, maximalSccs,
+          cancellation);
+      this.offsets = offsets;
+      this.successors = successors;
+      this.cursor = new int[offsets.length - 1];
+    }
+
+    @Override
+    void startSuccessors(int state) {
+      cursor[state] = offsets[state];
+    }
+
+    @Override
+    int nextSuccessor(int state) {
+      int position = cursor[state];
+      if (position == offsets[state + 1]) {
+        return -1;
+      }
+      cursor[state] = position + 1;
+      return successors[position];
+    }
+  }
+}
@@ -4,15 +4,24 @@ import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.naturals.set.NatBitSets;
 import de.tum.in.probmodels.model.Distribution;
 import de.tum.in.probmodels.model.Model;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
 import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
 import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntIterators;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 public final class EndComponentDecomposition {
   private EndComponentDecomposition() {
@@ -20,53 +29,191 @@ public final class EndComponentDecomposition {
   }
 
   public static List<Mec> computeComponents(Model model, NatBitSet restriction) {
+    return computeComponents(model, restriction, CancellationToken.none());
+  }
+
+  /**
+   * Computes the maximal end components of the model restricted to the given states with the
+   * given algorithm. {@link MecAlgorithm#ATTRACTOR} copies the restricted model into arrays first
+   * and then removes every action at most once, which avoids the repeated passes of {@link
+   * MecAlgorithm#WORKLIST} on deeply nested models. {@link MecAlgorithm#PARALLEL_WORKLIST} refines
+   * independent candidates concurrently. All yield the same MECs, possibly in a different order.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the list of MECs
+   *     found so far, each of which is maximal.
+   */
+  public static List<Mec> computeComponents(Model model, NatBitSet restriction,
+      MecAlgorithm algorithm, CancellationToken cancellation) {
+    switch (algorithm) {
+      case WORKLIST:
+        return computeComponents(model, restriction, cancellation);
+      case ATTRACTOR:
+        return AttractorMecDecomposition.computeComponents(model, restriction, cancellation);
+      case PARALLEL_WORKLIST:
+        return computeComponentsParallel(model, restriction, cancellation);
+      default:
+        throw new AssertionError(algorithm);
+    }
+  }
+
+  /**
+   * Computes the maximal end components of the model restricted to the given states.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the list of MECs
+   *     found so far, each of which is maximal.
+   */
+  public static List<Mec> computeComponents(Model model, NatBitSet restriction,
+      CancellationToken cancellation) {
+    PredecessorIndex predecessors = PredecessorIndex.of(model, restriction);
     Deque<Mec> workList = new ArrayDeque<>();
-    workList.add(Mec.create(model, restriction));
+    workList.add(Mec.create(model, restriction, predecessors));
 
     List<Mec> mecs = new ArrayList<>();
     while (!workList.isEmpty()) {
+      if (cancellation.checkNow()) {
+        throw new CancelledException(Collections.unmodifiableList(mecs));
+      }
       Mec mec = workList.remove();
       assert restriction.containsAll(mec.states);
 
-      Int2ObjectFunction<IntIterator> successorFunction = state -> {
-        assert mec.states.contains(state) && restriction.contains(state);
+      List<Mec> preMecs;
+      try {
+        preMecs = refine(model, mec, predecessors, cancellation);
+      } catch (CancelledException e) {
+        throw new CancelledException(Collections.unmodifiableList(mecs));
+      }
+      if (preMecs == null) {
+        assert !mecs.contains(mec);
+        mecs.add(mec);
+      } else {
+        workList.addAll(preMecs);
+      }
+    }
 
-        List<Distribution> choices = model.getChoices(state);
-        if (choices == null) {
-          return IntIterators.EMPTY_ITERATOR;
+    return mecs;
+  }
+
+  /**
+   * Variant of {@link #computeComponents(Model, NatBitSet, CancellationToken)} which refines the
+   * candidates as tasks of the common fork-join pool. The candidates a candidate splits into are
+   * independent of each other, so they are refined concurrently. The model has to allow concurrent
+   * reads. The MECs are returned in no particular order.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the list of MECs
+   *     found so far, each of which is maximal.
+   */
+  public static List<Mec> computeComponentsParallel(Model model, NatBitSet restriction,
+      CancellationToken cancellation) {
+    PredecessorIndex predecessors = PredecessorIndex.of(model, restriction);
+    Mec initial = Mec.create(model, restriction, predecessors);
+    Collection<Mec> mecs = new ConcurrentLinkedQueue<>();
+    AtomicBoolean cancelled = new AtomicBoolean(false);
+    ForkJoinPool.commonPool().invoke(
+        new RefineTask(model, predecessors, initial, mecs, cancelled, cancellation));
+    List<Mec> result = new ArrayList<>(mecs);
+    if (cancelled.get()) {
+      throw new CancelledException(Collections.unmodifiableList(result));
+    }
+    return result;
+  }
+
+  // Returns null if the candidate is a MEC, otherwise the non-empty candidates it splits into
+  @Nullable
+  private static List<Mec> refine(Model model, Mec mec, PredecessorIndex predecessors,
+      CancellationToken cancellation) {
+    Int2ObjectFunction<IntIterator> successorFunction = state -> {
+      assert mec.states.contains(state);
+
+      List<Distribution> choices = model.getChoices(state);
+      if (choices == null) {
+        return IntIterators.EMPTY_ITERATOR;
+      }
+      IntSet allowedActions = mec.actions.get(state);
+      if (allowedActions == null || allowedActions.isEmpty()) {
+        return IntIterators.EMPTY_ITERATOR;
+      }
+      if (allowedActions.size() == 1) {
+        return choices.get(allowedActions.iterator().nextInt()).support().iterator();
+      }
+      // Make successors unique - cheap due to bulk OR
+      NatBitSet union = NatBitSets.set();
+      allowedActions.forEach((int index) -> union.or(choices.get(index).support()));
+      return union.iterator();
+    };
+
+    List<NatBitSet> sccs = SccDecomposition.computeSccs(successorFunction, mec.states,
+        s -> true, true, cancellation);
+    List<Mec> preMecs = sccs.stream()
+        .map(scc -> Mec.create(model, scc, predecessors))
+        .filter(m -> !m.states.isEmpty())
+        .collect(Collectors.toList());
+
+    if (preMecs.size() == 1) {
+      Mec refinedMec = preMecs.get(0);
+      assert !refinedMec.states.isEmpty();
+      if (mec.equals(refinedMec)) {
+        return null;
+      }
+    }
+    return preMecs;
+  }
+
+  private static final class RefineTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final Model model;
+    private final PredecessorIndex predecessors;
+    private final Mec candidate;
+    private final Collection<Mec> mecs;
+    private final AtomicBoolean cancelled;
+    private final CancellationToken cancellation;
+
+    RefineTask(Model model, PredecessorIndex predecessors, Mec candidate, Collection<Mec> mecs,
+        AtomicBoolean cancelled, CancellationToken cancellation) {
+      this.model = model;
+      this.predecessors = predecessors;
+      this.candidate = candidate;
+      this.mecs = mecs;
+      this.cancelled = cancelled;
+      this.cancellation = cancellation;
+    }
+
+    @Override
+    protected void compute() {
+      Mec current = candidate;
+      while (true) {
+        // Stop without throwing, so that all tasks finish and the found MECs are complete
+        if (cancelled.get()) {
+          return;
         }
-        IntSet allowedActions = mec.actions.get(state);
-        if (allowedActions == null || allowedActions.isEmpty()) {
-          return IntIterators.EMPTY_ITERATOR;
+        if (cancellation.checkNow()) {
+          cancelled.set(true);
+          return;
         }
-        if (allowedActions.size() == 1) {
-          return choices.get(allowedActions.iterator().nextInt()).support().iterator();
+
+        List<Mec> preMecs;
+        try {
+          preMecs = refine(model, current, predecessors, cancellation);
+        } catch (CancelledException e) {
+          cancelled.set(true);
+          return;
+        }
+        if (preMecs == null) {
+          mecs.add(current);
+          return;
         }
-        // Make successors unique - cheap due to bulk OR
-        NatBitSet union = NatBitSets.set();
-        allowedActions.forEach((int index) -> union.or(choices.get(index).support()));
-        return union.iterator();
-      };
-
-      List<Mec> preMecs =
-          SccDecomposition.computeSccs(successorFunction, mec.states, s -> true, true)
-              .stream()
-              .map(scc -> Mec.create(model, scc))
-              .filter(m -> !m.states.isEmpty())
-              .collect(Collectors.toList());
-
-      if (preMecs.size() == 1) {
-        Mec refinedMec = preMecs.get(0);
-        assert !refinedMec.states.isEmpty();
-        if (mec.equals(refinedMec)) {
-          assert !mecs.contains(refinedMec);
-          mecs.add(refinedMec);
-          continue;
+        if (preMecs.size() != 1) {
+          List<RefineTask> tasks = new ArrayList<>(preMecs.size());
+          for (Mec preMec : preMecs) {
+            tasks.add(
+                new RefineTask(model, predecessors, preMec, mecs, cancelled, cancellation));
+          }
+          invokeAll(tasks);
+          return;
         }
+        // Nothing to fork
+        current = preMecs.get(0);
       }
-      workList.addAll(preMecs);
     }
-
-    return mecs;
   }
 }
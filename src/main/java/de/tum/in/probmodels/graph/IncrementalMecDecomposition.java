@@ -0,0 +1,205 @@
+package de.tum.in.probmodels.graph;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.Model;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maintains the maximal end components of a model which only grows, i.e. to which states and
+ * choices are added but whose existing choices never change, as in partial exploration. Instead of
+ * decomposing all states again after each exploration step, {@link #update(IntCollection)} only
+ * decomposes the part affected by the new choices.
+ *
+ * <p>Since existing choices stay, every end component stays one, so MECs can only grow and merge.
+ * A new or grown MEC has to use one of the new choices, hence it lies within the states which are
+ * both reachable from and reaching a state with a new choice. These are found through a
+ * predecessor index built from the added choices, and only they are decomposed.</p>
+ *
+ * <p>Only states passed to {@link #update(IntCollection)} are considered, transitions to other
+ * states are treated as leaving. If choices of the model do change, a new instance has to be
+ * used.</p>
+ */
+public final class IncrementalMecDecomposition {
+  private static final Logger logger =
+      Logger.getLogger(IncrementalMecDecomposition.class.getName());
+
+  private final Model model;
+  private final NatBitSet states = NatBitSets.set();
+  // Number of choices of each state seen so far, all choices beyond are new
+  private final IntList knownChoices = new IntArrayList();
+  private final Int2ObjectMap<IntSet> predecessors = new Int2ObjectOpenHashMap<>();
+  private final Int2ObjectMap<Mec> componentOf = new Int2ObjectOpenHashMap<>();
+  private final Set<Mec> components = new LinkedHashSet<>();
+  // States with new choices of a cancelled update
+  private final NatBitSet pending = NatBitSets.set();
+
+  public IncrementalMecDecomposition(Model model) {
+    this.model = model;
+  }
+
+  public List<NatBitSet> update(IntCollection changedStates) {
+    return update(changedStates, CancellationToken.none());
+  }
+
+  /**
+   * Updates the MECs after choices have been added to the given states. Newly added states have
+   * to be passed, too, also those without choices if they should be considered.
+   *
+   * @return the states of all MECs which are new or have grown, pairwise disjoint. This list can be
+   *     passed directly to {@link de.tum.in.probmodels.model.CollapseModel#collapse(List)}.
+   * @throws CancelledException if the token is cancelled. The decomposition then is unchanged,
+   *     apart from the new choices being registered, so the next update recomputes the affected
+   *     part. There is no partial result.
+   */
+  public List<NatBitSet> update(IntCollection changedStates, CancellationToken cancellation) {
+    NatBitSet touched = NatBitSets.copyOf(pending);
+    changedStates.forEach((int state) -> {
+      states.set(state);
+      if (registerNewChoices(state)) {
+        touched.set(state);
+      }
+    });
+    if (touched.isEmpty()) {
+      return Collections.emptyList();
+    }
+
+    NatBitSet region = affectedRegion(touched);
+    int regionSize = region.size();
+    // Old MECs are either fully contained in the region or disjoint from it. Note that the
+    // decomposition shrinks the region
+    assert components.stream().allMatch(mec ->
+        region.containsAll(mec.states) || !region.intersects(mec.states));
+
+    List<Mec> mecs;
+    try {
+      mecs = EndComponentDecomposition.computeComponents(model, region, cancellation);
+    } catch (CancelledException e) {
+      // Partial MECs only cover part of the region, the next update will find all again
+      pending.or(touched);
+      throw new CancelledException(null);
+    }
+    pending.clear();
+
+    List<NatBitSet> delta = new ArrayList<>();
+    for (Mec mec : mecs) {
+      Mec previous = componentOf.get(mec.states.firstInt());
+      if (previous != null && previous.states.equals(mec.states)) {
+        // New choices only inside an existing MEC
+        components.remove(previous);
+        components.add(mec);
+        mec.states.forEach((int state) -> componentOf.put(state, mec));
+        continue;
+      }
+      assert mec.states.intersects(touched)
+          : String.format("MEC %s grew without new choices", mec);
+
+      mec.states.forEach((int state) -> {
+        Mec absorbed = componentOf.put(state, mec);
+        if (absorbed != null) {
+          assert mec.states.containsAll(absorbed.states);
+          components.remove(absorbed);
+        }
+      });
+      components.add(mec);
+      delta.add(mec.states);
+    }
+
+    logger.log(Level.FINE, "Updated MECs in region of {0} states, {1} new or grown",
+        new Object[] {regionSize, delta.size()});
+    return delta;
+  }
+
+  /**
+   * @return the current MECs.
+   */
+  public List<Mec> components() {
+    return List.copyOf(components);
+  }
+
+  /**
+   * @return the MEC containing the state or null if there is none.
+   */
+  public Mec componentOf(int state) {
+    return componentOf.get(state);
+  }
+
+  // Adds the new choices of the state to the predecessor index, returns true if there are any
+  private boolean registerNewChoices(int state) {
+    while (knownChoices.size() <= state) {
+      knownChoices.add(0);
+    }
+    List<Distribution> choices = model.getChoices(state);
+    int known = knownChoices.getInt(state);
+    if (choices == null || choices.size() <= known) {
+      return false;
+    }
+    for (int action = known; action < choices.size(); action++) {
+      choices.get(action).support().forEach((int successor) -> {
+        if (successor != state) {
+          predecessors.computeIfAbsent(successor, k -> new IntOpenHashSet()).add(state);
+        }
+      });
+    }
+    knownChoices.set(state, choices.size());
+    return true;
+  }
+
+  // States reachable from and reaching some touched state. Searches forward first, since the new
+  // choices usually belong to states at the frontier of the model
+  private NatBitSet affectedRegion(NatBitSet touched) {
+    NatBitSet forward = NatBitSets.set();
+    IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+    touched.forEach((int state) -> {
+      forward.set(state);
+      queue.enqueue(state);
+    });
+    while (!queue.isEmpty()) {
+      int state = queue.dequeueInt();
+      for (Distribution choice : model.getChoices(state)) {
+        choice.support().forEach((int successor) -> {
+          if (states.contains(successor) && !forward.contains(successor)) {
+            forward.set(successor);
+            queue.enqueue(successor);
+          }
+        });
+      }
+    }
+
+    NatBitSet region = NatBitSets.set();
+    touched.forEach((int state) -> {
+      region.set(state);
+      queue.enqueue(state);
+    });
+    while (!queue.isEmpty()) {
+      IntSet statePredecessors = predecessors.get(queue.dequeueInt());
+      if (statePredecessors == null) {
+        continue;
+      }
+      statePredecessors.forEach((int predecessor) -> {
+        if (forward.contains(predecessor) && !region.contains(predecessor)) {
+          region.set(predecessor);
+          queue.enqueue(predecessor);
+        }
+      });
+    }
+    return region;
+  }
+}
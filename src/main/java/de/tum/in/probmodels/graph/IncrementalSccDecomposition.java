@@ -0,0 +1,257 @@
+package de.tum.in.probmodels.graph;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.naturals.unionfind.IntArrayUnionFind;
+import de.tum.in.naturals.unionfind.IntUnionFind;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Maintains the SCCs of a graph to which edges are only added, one at a time, as in black box
+ * learning where each newly sampled transition adds an edge. Instead of decomposing the whole
+ * graph again, {@link #addEdge(int, int)} merges the SCCs closed into a cycle by the new edge.
+ *
+ * <p>SCCs are kept in a union-find structure, and the graph of SCCs (which is acyclic) in a
+ * topological order as in the algorithm of Pearce and Kelly. An edge consistent with the order
+ * needs no further work. Otherwise, the states between the two ends in the order which are
+ * reachable from the successor or reaching the source are searched. If the source is reachable,
+ * the states found by both searches form a cycle and are merged, and in any case the found states
+ * are reordered among their previous positions.</p>
+ *
+ * <p>The SCCs formed by merges are collected until {@link #pollMerged()}, so only these have to be
+ * checked for (new or grown) end components.</p>
+ */
+public final class IncrementalSccDecomposition {
+  private static final Logger logger =
+      Logger.getLogger(IncrementalSccDecomposition.class.getName());
+
+  private final IntUnionFind components = new IntArrayUnionFind(0);
+  // Position of each SCC in the topological order, indexed by its representative. -1 for states
+  // not seen so far
+  private final IntArrayList order = new IntArrayList();
+  private int nextOrder = 0;
+  // Successor and predecessor SCCs, indexed by representative. May contain states which are no
+  // longer representatives, these are resolved when searching
+  private final Int2ObjectMap<IntSet> successors = new Int2ObjectOpenHashMap<>();
+  private final Int2ObjectMap<IntSet> predecessors = new Int2ObjectOpenHashMap<>();
+  // States of all SCCs with more than one state, indexed by representative
+  private final Int2ObjectMap<NatBitSet> members = new Int2ObjectOpenHashMap<>();
+  // Representatives of SCCs formed by merges since the last poll, possibly outdated by later ones
+  private final NatBitSet merged = NatBitSets.set();
+
+  private final IntArrayList searchStack = new IntArrayList();
+  private int mergeCount = 0;
+
+  /**
+   * Adds a state without edges, which forms an SCC on its own. Does nothing if the state is known.
+   */
+  public void addState(int state) {
+    checkArgument(state >= 0, "Invalid state %s", state);
+    if (components.size() <= state) {
+      components.add(Math.max(components.size(), state + 1 - components.size()));
+    }
+    while (order.size() <= state) {
+      order.add(-1);
+    }
+    if (order.getInt(state) == -1) {
+      // No edges yet, hence any position is consistent
+      order.set(state, nextOrder++);
+    }
+  }
+
+  /**
+   * Adds an edge, adding the states if necessary.
+   *
+   * @return whether SCCs were merged, i.e. the edge closed a cycle between different SCCs.
+   */
+  public boolean addEdge(int state, int successor) {
+    addState(state);
+    addState(successor);
+    int source = components.find(state);
+    int target = components.find(successor);
+    if (source == target) {
+      return false;
+    }
+    successors.computeIfAbsent(source, k -> new IntOpenHashSet()).add(target);
+    predecessors.computeIfAbsent(target, k -> new IntOpenHashSet()).add(source);
+
+    int sourceOrder = order.getInt(source);
+    int targetOrder = order.getInt(target);
+    if (sourceOrder < targetOrder) {
+      return false;
+    }
+
+    // All SCCs affected by the edge lie between target and source in the order
+    IntSet forward = search(target, successors, sourceOrder, true);
+    IntSet backward = search(source, predecessors, targetOrder, false);
+    boolean cycle = forward.contains(source);
+    assert cycle == backward.contains(target);
+
+    IntArrayList forwardOnly = new IntArrayList();
+    IntArrayList backwardOnly = new IntArrayList();
+    IntArrayList cycleSccs = new IntArrayList();
+    forward.forEach((int scc) -> (backward.contains(scc) ? cycleSccs : forwardOnly).add(scc));
+    backward.forEach((int scc) -> {
+      if (!forward.contains(scc)) {
+        backwardOnly.add(scc);
+      }
+    });
+    int positionCount = forwardOnly.size() + backwardOnly.size() + cycleSccs.size();
+    int[] positions = new int[positionCount];
+    int position = 0;
+    for (IntArrayList sccs : List.of(forwardOnly, backwardOnly, cycleSccs)) {
+      for (int scc : sccs) {
+        positions[position++] = order.getInt(scc);
+      }
+    }
+    IntArrays.quickSort(positions);
+    sortByOrder(forwardOnly);
+    sortByOrder(backwardOnly);
+
+    // Everything reaching the source takes the lowest positions, everything reachable from the
+    // target the highest, so the former only move down and the latter only up in the order. If
+    // both, the SCC is part of the cycle, and the merged SCC is placed in between
+    for (int index = 0; index < backwardOnly.size(); index++) {
+      order.set(backwardOnly.getInt(index), positions[index]);
+    }
+    int forwardStart = positionCount - forwardOnly.size();
+    for (int index = 0; index < forwardOnly.size(); index++) {
+      order.set(forwardOnly.getInt(index), positions[forwardStart + index]);
+    }
+    if (cycle) {
+      int representative = merge(cycleSccs);
+      order.set(representative, positions[forwardStart - 1]);
+    }
+    return cycle;
+  }
+
+  /**
+   * @return the representative of the SCC of the given known state.
+   */
+  public int representative(int state) {
+    checkArgument(isKnown(state), "Unknown state %s", state);
+    return components.find(state);
+  }
+
+  public boolean isKnown(int state) {
+    return 0 <= state && state < order.size() && order.getInt(state) != -1;
+  }
+
+  /**
+   * @return the states of the SCC of the given known state.
+   */
+  public NatBitSet component(int state) {
+    int representative = representative(state);
+    NatBitSet states = members.get(representative);
+    return states == null ? NatBitSets.singleton(state) : NatBitSets.copyOf(states);
+  }
+
+  /**
+   * @return the states of all SCCs formed by merges since the last call, pairwise disjoint.
+   */
+  public List<NatBitSet> pollMerged() {
+    NatBitSet representatives = NatBitSets.set();
+    merged.forEach((int state) -> representatives.set(components.find(state)));
+    merged.clear();
+
+    List<NatBitSet> sccs = new ArrayList<>(representatives.size());
+    representatives.forEach((int representative) -> sccs.add(component(representative)));
+    logger.log(Level.FINE, "{0} merges since last poll, yielding {1} SCCs",
+        new Object[] {mergeCount, sccs.size()});
+    mergeCount = 0;
+    return sccs;
+  }
+
+  // SCCs reachable from the start (forward) or reaching it (backward) through SCCs whose order is
+  // at most (forward) or at least (backward) the bound
+  private IntSet search(int start, Int2ObjectMap<IntSet> edges, int bound, boolean forward) {
+    IntSet visited = new IntOpenHashSet();
+    visited.add(start);
+    searchStack.add(start);
+    while (!searchStack.isEmpty()) {
+      IntSet next = edges.get(searchStack.popInt());
+      if (next == null) {
+        continue;
+      }
+      next.forEach((int state) -> {
+        int scc = components.find(state);
+        int sccOrder = order.getInt(scc);
+        if ((forward ? sccOrder <= bound : sccOrder >= bound) && visited.add(scc)) {
+          searchStack.add(scc);
+        }
+      });
+    }
+    return visited;
+  }
+
+  private void sortByOrder(IntArrayList sccs) {
+    IntArrays.quickSort(sccs.elements(), 0, sccs.size(),
+        (a, b) -> Integer.compare(order.getInt(a), order.getInt(b)));
+  }
+
+  // Merges the given SCCs into one and returns its representative
+  private int merge(IntArrayList sccs) {
+    assert sccs.size() > 1;
+    mergeCount += 1;
+
+    // Reuse the largest state set
+    NatBitSet states = null;
+    for (int scc : sccs) {
+      NatBitSet sccStates = members.get(scc);
+      if (sccStates != null && (states == null || sccStates.size() > states.size())) {
+        states = sccStates;
+      }
+    }
+    if (states == null) {
+      states = NatBitSets.set();
+    }
+    for (int scc : sccs) {
+      NatBitSet sccStates = members.remove(scc);
+      if (sccStates == null) {
+        states.set(scc);
+      } else if (sccStates != states) {
+        states.or(sccStates);
+      }
+    }
+
+    int first = sccs.getInt(0);
+    for (int scc : sccs) {
+      components.union(first, scc);
+    }
+    int representative = components.find(first);
+    members.put(representative, states);
+    successors.put(representative, collectEdges(sccs, successors, representative));
+    predecessors.put(representative, collectEdges(sccs, predecessors, representative));
+    merged.set(representative);
+    return representative;
+  }
+
+  // Union of the edges of the given SCCs, without those inside the merged SCC
+  private IntSet collectEdges(IntArrayList sccs, Int2ObjectMap<IntSet> edges, int representative) {
+    IntSet collected = new IntOpenHashSet();
+    for (int scc : sccs) {
+      IntSet sccEdges = edges.remove(scc);
+      if (sccEdges == null) {
+        continue;
+      }
+      sccEdges.forEach((int state) -> {
+        int other = components.find(state);
+        if (other != representative) {
+          collected.add(other);
+        }
+      });
+    }
+    return collected;
+  }
+}
@@ -6,16 +6,18 @@ import de.tum.in.probmodels.model.Distribution;
 import de.tum.in.probmodels.model.Model;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.function.IntFunction;
 
 public final class Mec {
   public final NatBitSet states; // Set of state numbers corresponding to the original model that belong to the mec
   public final Int2ObjectMap<IntSet> actions; // Map from state to a set of indices. These indices give a subset of state's list of actions that can be obtained from the original model.
   // This subset gives a set of actions that are a part of the mec.
+  // Flat layout, built on the first call of compact(). Immutable, so racing threads at worst build it twice
+  private CompactMec compact = null;
 
   private Mec(NatBitSet s, Int2ObjectMap<IntSet> a) {
     states = s;
@@ -23,54 +25,61 @@ public final class Mec {
   }
 
   // Creates and returns an mec object from the given model and the given set of states.
+  // Note that the given set is modified, it only contains the remaining states afterwards.
   public static Mec create(Model model, NatBitSet states) {
-    Int2ObjectMap<IntSet> actions = new Int2ObjectOpenHashMap<>(states.size());
-    boolean changed = true;
+    return create(model, states, PredecessorIndex.of(model, states));
+  }
 
-    // This loop iteratively removes actions that may point to a state outside the mec.
-    // Further it removes states that may not have a valid action. (All actions for a state may lie outside the given set of states.
-    while (changed) {
-      changed = false;
+  // As above, with an index of the predecessors of all given states. The index may cover more
+  // states, so that a decomposition builds it once and uses it for all candidates.
+  static Mec create(Model model, NatBitSet states, PredecessorIndex predecessors) {
+    Int2ObjectMap<IntSet> actions = new Int2ObjectOpenHashMap<>(states.size());
+    NatBitSet removed = NatBitSets.set();
+    IntArrayList removalQueue = new IntArrayList();
 
-      IntIterator stateIterator = states.iterator();
-      NatBitSet toRemove = NatBitSets.set();
-      while (stateIterator.hasNext()) {
-        int state = stateIterator.nextInt();
+    IntIterator stateIterator = states.iterator();
+    while (stateIterator.hasNext()) {
+      int state = stateIterator.nextInt();
 
-        List<Distribution> distributions = model.getChoices(state);
-        int choiceCount = distributions.size();
-        // If there are no actions from a state, remove the state from the mec
-        if (choiceCount == 0) {
-          toRemove.set(state);
-          changed = true;
-          continue;
+      List<Distribution> distributions = model.getChoices(state);
+      int choiceCount = distributions.size();
+      NatBitSet stateActions = NatBitSets.boundedSet(choiceCount);
+      for (int action = 0; action < choiceCount; action++) {
+        // Remove an action if it's support consists of state outside the given states
+        if (states.containsAll(distributions.get(action).support())) {
+          stateActions.set(action);
         }
+      }
 
-        IntFunction<IntSet> constructor = k -> NatBitSets.boundedFilledSet(choiceCount);
-        // Indices of all actions from a state. If actions map already has a value, that is returned, otherwise all indices from 0 to choiceCount-1 are returned.
-        IntSet stateActions = actions.computeIfAbsent(state, constructor);
-        // Indices of actions that are to be removed (Empty for now)
-        NatBitSet removeActions = NatBitSets.boundedSet(choiceCount);
-
-        // Remove an action if it's support consists of state outside the remaining states
-        stateActions.forEach((int action) -> {
-          if (!states.containsAll(distributions.get(action).support())) {
-            removeActions.set(action);
-          }
-        });
-        //  changed set to true there is a removed action
-        changed |= stateActions.removeAll(removeActions);
+      // If there are no (remaining) actions from a state, remove the state from the mec
+      if (stateActions.isEmpty()) {
+        removed.set(state);
+        removalQueue.add(state);
+      } else {
+        actions.put(state, stateActions);
+      }
+    }
 
-        // if all of the state's actions are removed, remove the state from the mec
-        if (stateActions.isEmpty()) {
-          toRemove.set(state);
-          stateActions.remove(state);
-          changed = true;
+    // Removing a state removes all actions leading to it, which may remove further states. Only the
+    // actions actually affected by a removal are re-examined
+    while (!removalQueue.isEmpty()) {
+      int state = removalQueue.popInt();
+      for (int index = predecessors.from(state); index < predecessors.to(state); index++) {
+        int predecessor = predecessors.predecessorState(index);
+        if (!states.contains(predecessor) || removed.contains(predecessor)) {
+          continue;
+        }
+        IntSet predecessorActions = actions.get(predecessor);
+        if (predecessorActions.remove(predecessors.predecessorAction(index))
+            && predecessorActions.isEmpty()) {
+          actions.remove(predecessor);
+          removed.set(predecessor);
+          removalQueue.add(predecessor);
         }
       }
-      // Do the remove operation
-      states.andNot(toRemove);
     }
+    states.andNot(removed);
+    assert actions.keySet().equals(states);
 
     return new Mec(states, actions);
   }
@@ -100,4 +109,17 @@ public final class Mec {
   public int size() {
     return states.size();
   }
+
+  /**
+   * @return the flat array layout of this MEC. It is built once and cached, so the MEC must not be
+   *     modified afterwards.
+   */
+  public CompactMec compact() {
+    CompactMec layout = compact;
+    if (layout == null) {
+      layout = CompactMec.of(this);
+      compact = layout;
+    }
+    return layout;
+  }
 }
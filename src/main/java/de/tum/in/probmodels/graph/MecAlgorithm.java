@@ -0,0 +1,13 @@
+package de.tum.in.probmodels.graph;
+
+public enum MecAlgorithm {
+  // Repeated Mec.create and SCC decomposition of each candidate
+  WORKLIST,
+
+  // The worklist, refining independent candidates as fork-join tasks
+  PARALLEL_WORKLIST,
+
+  // SCC decomposition and backward attractor removal on a predecessor index, only re-decomposing
+  // changed SCCs
+  ATTRACTOR
+}
@@ -3,6 +3,7 @@ package de.tum.in.probmodels.graph;
 import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.naturals.set.NatBitSets;
 import de.tum.in.probmodels.model.Model;
+import de.tum.in.probmodels.util.CancellationToken;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -13,11 +14,22 @@ import java.util.logging.Logger;
 public class MecComponentAnalyser implements ComponentAnalyser {
   private static final Logger logger = Logger.getLogger(MecComponentAnalyser.class.getName());
 
+  private final MecAlgorithm algorithm;
+
+  public MecComponentAnalyser() {
+    this(MecAlgorithm.WORKLIST);
+  }
+
+  public MecComponentAnalyser(MecAlgorithm algorithm) {
+    this.algorithm = algorithm;
+  }
+
   @Override
   public List<NatBitSet> findComponents(Model model, IntSet states) {
     logger.log(Level.FINE, "\nStarting MECs search");
 
-    List<Mec> mecs = EndComponentDecomposition.computeComponents(model, NatBitSets.copyOf(states));
+    List<Mec> mecs = EndComponentDecomposition.computeComponents(model, NatBitSets.copyOf(states),
+        algorithm, CancellationToken.none());
     if (mecs.isEmpty()) {
       logger.log(Level.FINE, "Found no MECs");
       return Collections.emptyList();
@@ -4,6 +4,7 @@ import de.tum.in.probmodels.model.Distribution;
 import it.unimi.dsi.fastutil.ints.Int2DoubleFunction;
 import it.unimi.dsi.fastutil.ints.Int2DoubleMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 
 public class MecUniformizer {
 
@@ -26,9 +27,12 @@ public class MecUniformizer {
 
         // For every state-action pair in MEC,
         // get the uniformized rate, set self loop if needed, adjust the transition probabilities
-        for (Integer state : mec.states) {
-            for (Integer action : mec.actions.get(state.intValue())) {
-                uniformizeStateAction(state, action, uniformizedMecBuilder, maxRate);
+        IntIterator stateIterator = mec.states.iterator();
+        while (stateIterator.hasNext()) {
+            int state = stateIterator.nextInt();
+            IntIterator actionIterator = mec.actions.get(state).iterator();
+            while (actionIterator.hasNext()) {
+                uniformizeStateAction(state, actionIterator.nextInt(), uniformizedMecBuilder, maxRate);
             }
         }
 
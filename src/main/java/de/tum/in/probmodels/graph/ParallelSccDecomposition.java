@@ -0,0 +1,469 @@
+package de.tum.in.probmodels.graph;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
+import it.unimi.dsi.fastutil.ints.IntArrayFIFOQueue;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Multi-core SCC decomposition for large graphs, see
+ * {@link SccDecomposition#computeSccsParallel(Int2ObjectFunction, IntCollection, IntPredicate,
+ * boolean, CancellationToken)}.
+ *
+ * <p>The reachable graph is first discovered by a level-synchronous breadth-first search, where
+ * the successor function is evaluated in parallel, and stored as forward and backward adjacency
+ * arrays over a dense local numbering. States without predecessors or successors in the
+ * remaining graph are then trimmed as trivial SCCs. The rest is decomposed by the
+ * forward-backward algorithm: the states both reachable from and reaching a pivot form its SCC,
+ * and the three remaining parts are decomposed independently in parallel. Parts below
+ * {@link #SEQUENTIAL_CUTOFF} states are handled by Tarjan's algorithm instead.</p>
+ */
+final class ParallelSccDecomposition {
+  private static final int SEQUENTIAL_CUTOFF = 4096;
+  private static final byte FORWARD = 1;
+  private static final byte BACKWARD = 2;
+  private static final byte ON_STACK = 4;
+
+  private final Int2ObjectFunction<? extends PrimitiveIterator.OfInt> successorFunction;
+  private final IntPredicate restriction;
+  private final CancellationToken cancellation;
+
+  // Local numbering in discovery order
+  private int[] states;
+  private int stateCount;
+  // Edges without self-loops, the successors of s are successors[offsets[s]] until
+  // successors[offsets[s + 1]], analogously for predecessors
+  private int[] offsets;
+  private int[] successors;
+  private int[] predecessorOffsets;
+  private int[] predecessors;
+  private final BitSet selfLoops = new BitSet();
+
+  // Per local state: the found SCC or -1, and the part of the forward-backward recursion. Tasks
+  // work on disjoint parts, hence only write disjoint entries.
+  private int[] component;
+  private int[] color;
+  private byte[] marks;
+  private int[] tarjanIndex;
+  private int[] lowLink;
+  private int[] cursor;
+  private final AtomicInteger componentCount = new AtomicInteger();
+  private final AtomicInteger colorCount = new AtomicInteger();
+  // Tasks stop without throwing, so that all started components are complete when the pool returns
+  private volatile boolean cancelled = false;
+
+  private ParallelSccDecomposition(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> successorFunction,
+      IntPredicate restriction, CancellationToken cancellation) {
+    this.successorFunction = successorFunction;
+    this.restriction = restriction;
+    this.cancellation = cancellation;
+  }
+
+  static List<NatBitSet> computeSccs(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> successorFunction,
+      IntCollection initialStates, IntPredicate restriction, boolean includeTransient,
+      CancellationToken cancellation) {
+    ParallelSccDecomposition decomposition =
+        new ParallelSccDecomposition(successorFunction, restriction, cancellation);
+    decomposition.discover(initialStates);
+    decomposition.buildPredecessors();
+
+    int count = decomposition.stateCount;
+    decomposition.component = new int[count];
+    Arrays.fill(decomposition.component, -1);
+    decomposition.color = new int[count];
+    decomposition.marks = new byte[count];
+    decomposition.tarjanIndex = new int[count];
+    decomposition.lowLink = new int[count];
+    decomposition.cursor = new int[count];
+
+    int[] remaining = decomposition.trim();
+    if (remaining.length > 0) {
+      ForkJoinPool.commonPool().invoke(decomposition.new ForwardBackwardTask(remaining, 0));
+    }
+    if (decomposition.cancelled) {
+      throw new CancelledException(decomposition.collect(false, includeTransient));
+    }
+    return decomposition.collect(true, includeTransient);
+  }
+
+  private void discover(IntCollection initialStates) {
+    Int2IntOpenHashMap localIds = new Int2IntOpenHashMap();
+    localIds.defaultReturnValue(-1);
+    IntArrayList stateList = new IntArrayList();
+    initialStates.forEach((int state) -> {
+      if (restriction.test(state) && localIds.putIfAbsent(state, stateList.size()) == -1) {
+        stateList.add(state);
+      }
+    });
+
+    IntArrayList offsetList = new IntArrayList();
+    offsetList.add(0);
+    IntArrayList successorList = new IntArrayList();
+    int processed = 0;
+    while (processed < stateList.size()) {
+      if (cancellation.checkNow()) {
+        throw new CancelledException(List.of());
+      }
+      int levelStart = processed;
+      int levelEnd = stateList.size();
+      int[][] levelSuccessors = new int[levelEnd - levelStart][];
+      IntStream.range(levelStart, levelEnd).parallel().forEach(local ->
+          levelSuccessors[local - levelStart] = restrictedSuccessors(stateList.getInt(local)));
+
+      for (int i = 0; i < levelSuccessors.length; i++) {
+        int local = levelStart + i;
+        for (int successor : levelSuccessors[i]) {
+          int successorLocal = localIds.get(successor);
+          if (successorLocal == -1) {
+            successorLocal = stateList.size();
+            localIds.put(successor, successorLocal);
+            stateList.add(successor);
+          }
+          if (successorLocal == local) {
+            selfLoops.set(local);
+          } else {
+            successorList.add(successorLocal);
+          }
+        }
+        offsetList.add(successorList.size());
+      }
+      processed = levelEnd;
+    }
+
+    states = stateList.toIntArray();
+    stateCount = states.length;
+    offsets = offsetList.toIntArray();
+    successors = successorList.toIntArray();
+  }
+
+  private int[] restrictedSuccessors(int state) {
+    IntArrayList result = new IntArrayList();
+    PrimitiveIterator.OfInt iterator = successorFunction.apply(state);
+    while (iterator.hasNext()) {
+      int successor = iterator.nextInt();
+      if (restriction.test(successor)) {
+        result.add(successor);
+      }
+    }
+    return result.toIntArray();
+  }
+
+  private void buildPredecessors() {
+    predecessorOffsets = new int[stateCount + 1];
+    for (int successor : successors) {
+      predecessorOffsets[successor + 1] += 1;
+    }
+    for (int state = 0; state < stateCount; state++) {
+      predecessorOffsets[state + 1] += predecessorOffsets[state];
+    }
+    int[] position = Arrays.copyOf(predecessorOffsets, stateCount);
+    predecessors = new int[successors.length];
+    for (int state = 0; state < stateCount; state++) {
+      for (int i = offsets[state]; i < offsets[state + 1]; i++) {
+        int successor = successors[i];
+        predecessors[position[successor]] = state;
+        position[successor] += 1;
+      }
+    }
+  }
+
+  /**
+   * Repeatedly removes states without predecessors or successors among the remaining states,
+   * each of which is a trivial SCC.
+   *
+   * @return the remaining states.
+   */
+  private int[] trim() {
+    int[] inDegree = new int[stateCount];
+    int[] outDegree = new int[stateCount];
+    IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+    for (int state = 0; state < stateCount; state++) {
+      inDegree[state] = predecessorOffsets[state + 1] - predecessorOffsets[state];
+      outDegree[state] = offsets[state + 1] - offsets[state];
+      if (inDegree[state] == 0 || outDegree[state] == 0) {
+        component[state] = componentCount.getAndIncrement();
+        queue.enqueue(state);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int state = queue.dequeueInt();
+      for (int i = offsets[state]; i < offsets[state + 1]; i++) {
+        int successor = successors[i];
+        inDegree[successor] -= 1;
+        if (inDegree[successor] == 0 && component[successor] == -1) {
+          component[successor] = componentCount.getAndIncrement();
+          queue.enqueue(successor);
+        }
+      }
+      for (int i = predecessorOffsets[state]; i < predecessorOffsets[state + 1]; i++) {
+        int predecessor = predecessors[i];
+        outDegree[predecessor] -= 1;
+        if (outDegree[predecessor] == 0 && component[predecessor] == -1) {
+          component[predecessor] = componentCount.getAndIncrement();
+          queue.enqueue(predecessor);
+        }
+      }
+    }
+
+    IntArrayList remaining = new IntArrayList();
+    for (int state = 0; state < stateCount; state++) {
+      if (component[state] == -1) {
+        remaining.add(state);
+      } else {
+        color[state] = -1;
+      }
+    }
+    return remaining.toIntArray();
+  }
+
+  /**
+   * Converts the found components into state sets. If complete, they are ordered like the
+   * results of Tarjan's algorithm, i.e. an SCC is listed before all SCCs which can reach it.
+   */
+  private List<NatBitSet> collect(boolean complete, boolean includeTransient) {
+    int components = componentCount.get();
+    // Group the states by component
+    int[] memberOffsets = new int[components + 1];
+    for (int state = 0; state < stateCount; state++) {
+      if (component[state] != -1) {
+        memberOffsets[component[state] + 1] += 1;
+      }
+    }
+    for (int i = 0; i < components; i++) {
+      memberOffsets[i + 1] += memberOffsets[i];
+    }
+    int[] members = new int[memberOffsets[components]];
+    int[] position = Arrays.copyOf(memberOffsets, components);
+    for (int state = 0; state < stateCount; state++) {
+      if (component[state] != -1) {
+        members[position[component[state]]] = state;
+        position[component[state]] += 1;
+      }
+    }
+
+    int[] order;
+    if (complete) {
+      order = bottomUpOrder(components, memberOffsets, members);
+    } else {
+      order = IntStream.range(0, components).toArray();
+    }
+
+    List<NatBitSet> sccs = new ArrayList<>(components);
+    for (int c : order) {
+      int from = memberOffsets[c];
+      int to = memberOffsets[c + 1];
+      if (to - from == 1 && !selfLoops.get(members[from])) {
+        if (includeTransient) {
+          sccs.add(NatBitSets.singleton(states[members[from]]));
+        }
+        continue;
+      }
+      NatBitSet scc = NatBitSets.set();
+      for (int i = from; i < to; i++) {
+        scc.set(states[members[i]]);
+      }
+      sccs.add(scc);
+    }
+    return Collections.unmodifiableList(sccs);
+  }
+
+  // Topological order of the condensation, starting with the bottom components
+  private int[] bottomUpOrder(int components, int[] memberOffsets, int[] members) {
+    int[] outDegree = new int[components];
+    for (int state = 0; state < stateCount; state++) {
+      for (int i = offsets[state]; i < offsets[state + 1]; i++) {
+        if (component[successors[i]] != component[state]) {
+          outDegree[component[state]] += 1;
+        }
+      }
+    }
+    IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+    for (int c = 0; c < components; c++) {
+      if (outDegree[c] == 0) {
+        queue.enqueue(c);
+      }
+    }
+    int[] order = new int[components];
+    int size = 0;
+    while (!queue.isEmpty()) {
+      int c = queue.dequeueInt();
+      order[size] = c;
+      size += 1;
+      for (int m = memberOffsets[c]; m < memberOffsets[c + 1]; m++) {
+        int state = members[m];
+        for (int i = predecessorOffsets[state]; i < predecessorOffsets[state + 1]; i++) {
+          int predecessorComponent = component[predecessors[i]];
+          if (predecessorComponent != c) {
+            outDegree[predecessorComponent] -= 1;
+            if (outDegree[predecessorComponent] == 0) {
+              queue.enqueue(predecessorComponent);
+            }
+          }
+        }
+      }
+    }
+    assert size == components;
+    return order;
+  }
+
+  private final class ForwardBackwardTask extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final int[] part;
+    private final int partColor;
+
+    ForwardBackwardTask(int[] part, int partColor) {
+      this.part = part;
+      this.partColor = partColor;
+    }
+
+    @Override
+    protected void compute() {
+      if (cancelled || cancellation.isCancelled()) {
+        cancelled = true;
+        return;
+      }
+      if (part.length <= SEQUENTIAL_CUTOFF) {
+        tarjan(part, partColor);
+        return;
+      }
+
+      int pivot = part[0];
+      mark(pivot, FORWARD, offsets, successors);
+      mark(pivot, BACKWARD, predecessorOffsets, predecessors);
+
+      int scc = componentCount.getAndIncrement();
+      IntArrayList forwardOnly = new IntArrayList();
+      IntArrayList backwardOnly = new IntArrayList();
+      IntArrayList neither = new IntArrayList();
+      for (int state : part) {
+        switch (marks[state]) {
+          case FORWARD | BACKWARD:
+            component[state] = scc;
+            break;
+          case FORWARD:
+            forwardOnly.add(state);
+            break;
+          case BACKWARD:
+            backwardOnly.add(state);
+            break;
+          default:
+            neither.add(state);
+            break;
+        }
+        marks[state] = 0;
+      }
+
+      // No edges lead from one part to another within the SCCs, so they can be handled
+      // independently
+      List<ForwardBackwardTask> subtasks = new ArrayList<>(3);
+      for (IntArrayList subPart : List.of(forwardOnly, backwardOnly, neither)) {
+        if (!subPart.isEmpty()) {
+          int subColor = colorCount.incrementAndGet();
+          int[] states = subPart.toIntArray();
+          for (int state : states) {
+            color[state] = subColor;
+          }
+          subtasks.add(new ForwardBackwardTask(states, subColor));
+        }
+      }
+      invokeAll(subtasks);
+    }
+
+    private void mark(int pivot, byte mark, int[] edgeOffsets, int[] edges) {
+      IntArrayFIFOQueue queue = new IntArrayFIFOQueue();
+      marks[pivot] |= mark;
+      queue.enqueue(pivot);
+      while (!queue.isEmpty()) {
+        int state = queue.dequeueInt();
+        for (int i = edgeOffsets[state]; i < edgeOffsets[state + 1]; i++) {
+          int next = edges[i];
+          if (color[next] == partColor && (marks[next] & mark) == 0) {
+            marks[next] |= mark;
+            queue.enqueue(next);
+          }
+        }
+      }
+    }
+  }
+
+  // Iterative Tarjan on the states of the given part
+  private void tarjan(int[] part, int partColor) {
+    for (int state : part) {
+      tarjanIndex[state] = -1;
+    }
+    IntArrayList stack = new IntArrayList();
+    IntArrayList callStack = new IntArrayList();
+    int index = 0;
+    for (int root : part) {
+      if (tarjanIndex[root] != -1) {
+        continue;
+      }
+      tarjanIndex[root] = index;
+      lowLink[root] = index;
+      index += 1;
+      cursor[root] = offsets[root];
+      stack.push(root);
+      marks[root] = ON_STACK;
+      callStack.push(root);
+
+      while (!callStack.isEmpty()) {
+        int state = callStack.topInt();
+        if (cursor[state] < offsets[state + 1]) {
+          int successor = successors[cursor[state]];
+          cursor[state] += 1;
+          if (color[successor] != partColor) {
+            continue;
+          }
+          if (tarjanIndex[successor] == -1) {
+            tarjanIndex[successor] = index;
+            lowLink[successor] = index;
+            index += 1;
+            cursor[successor] = offsets[successor];
+            stack.push(successor);
+            marks[successor] = ON_STACK;
+            callStack.push(successor);
+          } else if (marks[successor] == ON_STACK && tarjanIndex[successor] < lowLink[state]) {
+            lowLink[state] = tarjanIndex[successor];
+          }
+          continue;
+        }
+
+        callStack.popInt();
+        if (!callStack.isEmpty()) {
+          int parent = callStack.topInt();
+          if (lowLink[state] < lowLink[parent]) {
+            lowLink[parent] = lowLink[state];
+          }
+        }
+        if (lowLink[state] == tarjanIndex[state]) {
+          int scc = componentCount.getAndIncrement();
+          int member;
+          do {
+            member = stack.popInt();
+            marks[member] = 0;
+            component[member] = scc;
+          } while (member != state);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+package de.tum.in.probmodels.graph;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.Model;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.List;
+
+/**
+ * For each state of a set, the (state, action) pairs of the set having it as successor, excluding
+ * self loops. Built once per decomposition and shared by all {@link Mec#create(Model, NatBitSet,
+ * PredecessorIndex)} calls on subsets of the set. Immutable, hence safe to share between threads.
+ */
+final class PredecessorIndex {
+  private final int bound;
+  // The pairs leading to state t are at positions offsets[t] until offsets[t + 1]
+  private final int[] offsets;
+  private final int[] predecessorStates;
+  private final int[] predecessorActions;
+
+  private PredecessorIndex(int bound, int[] offsets, int[] predecessorStates,
+      int[] predecessorActions) {
+    this.bound = bound;
+    this.offsets = offsets;
+    this.predecessorStates = predecessorStates;
+    this.predecessorActions = predecessorActions;
+  }
+
+  static PredecessorIndex of(Model model, NatBitSet states) {
+    int bound = states.isEmpty() ? 0 : states.lastInt() + 1;
+    int[] offsets = new int[bound + 1];
+    IntArrayList targets = new IntArrayList();
+    IntArrayList sources = new IntArrayList();
+    IntArrayList actions = new IntArrayList();
+
+    IntIterator iterator = states.iterator();
+    while (iterator.hasNext()) {
+      int state = iterator.nextInt();
+      List<Distribution> choices = model.getChoices(state);
+      if (choices == null) {
+        continue;
+      }
+      for (int action = 0; action < choices.size(); action++) {
+        IntIterator successors = choices.get(action).support().iterator();
+        while (successors.hasNext()) {
+          int successor = successors.nextInt();
+          if (successor != state && states.contains(successor)) {
+            targets.add(successor);
+            sources.add(state);
+            actions.add(action);
+            offsets[successor + 1] += 1;
+          }
+        }
+      }
+    }
+
+    for (int state = 0; state < bound; state++) {
+      offsets[state + 1] += offsets[state];
+    }
+    int pairCount = targets.size();
+    int[] predecessorStates = new int[pairCount];
+    int[] predecessorActions = new int[pairCount];
+    int[] position = new int[bound];
+    System.arraycopy(offsets, 0, position, 0, bound);
+    for (int pair = 0; pair < pairCount; pair++) {
+      int index = position[targets.getInt(pair)]++;
+      predecessorStates[index] = sources.getInt(pair);
+      predecessorActions[index] = actions.getInt(pair);
+    }
+    return new PredecessorIndex(bound, offsets, predecessorStates, predecessorActions);
+  }
+
+  int from(int state) {
+    return state < bound ? offsets[state] : 0;
+  }
+
+  int to(int state) {
+    return state < bound ? offsets[state + 1] : 0;
+  }
+
+  int predecessorState(int position) {
+    return predecessorStates[position];
+  }
+
+  int predecessorAction(int position) {
+    return predecessorActions[position];
+  }
+}
@@ -0,0 +1,267 @@
+package de.tum.in.probmodels.graph;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.probmodels.model.CollapseView;
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.Model;
+import de.tum.in.probmodels.model.RestrictedModel;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import java.util.BitSet;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Qualitative reachability of a set of target states, i.e. the states where the minimal or maximal
+ * probability of reaching the target is 0 or 1. These only depend on the graph of the model and
+ * usually settle most states before any numerical computation, which then only has to consider
+ * the remaining ones.
+ *
+ * <ul>
+ *   <li>{@link #prob0A(NatBitSet)}: the probability is 0 under all schedulers (maximum is 0).</li>
+ *   <li>{@link #prob0E(NatBitSet)}: the probability is 0 under some scheduler (minimum is 0).</li>
+ *   <li>{@link #prob1A(NatBitSet)}: the probability is 1 under all schedulers (minimum is 1).</li>
+ *   <li>{@link #prob1E(NatBitSet)}: the probability is 1 under some scheduler (maximum is 1).</li>
+ * </ul>
+ *
+ * <p>All are backward fixpoints over an index from each state to the actions having it as
+ * successor, which is built once on construction and shared by all queries. Each fixpoint
+ * propagates bit set frontiers and considers each action at most once per pass. Only the given
+ * states are considered, transitions to other states are treated as going to a sink which never
+ * reaches the target. States without choices (or not yet explored) are sinks, too. The model must
+ * not change while the instance is used.</p>
+ */
+public final class QualitativeReachability {
+  private static final Logger logger = Logger.getLogger(QualitativeReachability.class.getName());
+
+  private final BitSet stateBits;
+  // The actions of state s are actionOffsets[s] until actionOffsets[s + 1], states outside the
+  // considered ones have none
+  private final int[] actionOffsets;
+  private final int[] actionState;
+  // Actions with a successor outside the considered states and their states
+  private final BitSet leavingActions = new BitSet();
+  private final BitSet leavingStates = new BitSet();
+  // The actions with state t as successor are predecessorAction[predecessorOffsets[t]] until
+  // predecessorAction[predecessorOffsets[t + 1]]
+  private final int[] predecessorOffsets;
+  private final int[] predecessorAction;
+
+  private QualitativeReachability(Model model, NatBitSet states) {
+    this.stateBits = NatBitSets.toBitSet(states);
+    int bound = states.isEmpty() ? 0 : states.lastInt() + 1;
+
+    actionOffsets = new int[bound + 1];
+    IntArrayList actionStates = new IntArrayList();
+    IntArrayList edgeTargets = new IntArrayList();
+    IntArrayList edgeActions = new IntArrayList();
+    predecessorOffsets = new int[bound + 1];
+    for (int state = 0; state < bound; state++) {
+      actionOffsets[state] = actionStates.size();
+      if (!states.contains(state)) {
+        continue;
+      }
+      List<Distribution> choices = model.getChoices(state);
+      if (choices == null) {
+        continue;
+      }
+      for (Distribution choice : choices) {
+        int action = actionStates.size();
+        actionStates.add(state);
+        IntIterator successors = choice.support().iterator();
+        while (successors.hasNext()) {
+          int successor = successors.nextInt();
+          if (states.contains(successor)) {
+            edgeTargets.add(successor);
+            edgeActions.add(action);
+            predecessorOffsets[successor + 1] += 1;
+          } else {
+            leavingActions.set(action);
+            leavingStates.set(state);
+          }
+        }
+      }
+    }
+    actionOffsets[bound] = actionStates.size();
+    actionState = actionStates.toIntArray();
+
+    for (int state = 0; state < bound; state++) {
+      predecessorOffsets[state + 1] += predecessorOffsets[state];
+    }
+    int edgeCount = edgeTargets.size();
+    predecessorAction = new int[edgeCount];
+    int[] position = new int[bound];
+    System.arraycopy(predecessorOffsets, 0, position, 0, bound);
+    for (int edge = 0; edge < edgeCount; edge++) {
+      predecessorAction[position[edgeTargets.getInt(edge)]++] = edgeActions.getInt(edge);
+    }
+
+    logger.log(Level.FINE, "Built predecessor index of {0} states, {1} actions and {2} edges",
+        new Object[] {stateBits.cardinality(), actionState.length, edgeCount});
+  }
+
+  /**
+   * Considers all states {@code 0} to {@code n - 1} of the model.
+   */
+  public static QualitativeReachability of(Model model) {
+    return of(model, NatBitSets.fullSet(model.getNumStates()));
+  }
+
+  /**
+   * Considers only the given states of the model.
+   */
+  public static QualitativeReachability of(Model model, NatBitSet states) {
+    return new QualitativeReachability(model, states);
+  }
+
+  /**
+   * Considers all states of the view which have not been collapsed into another state.
+   */
+  public static QualitativeReachability of(CollapseView<?> view) {
+    NatBitSet states = NatBitSets.copyOf(NatBitSets.fullSet(view.getModel().getNumStates()));
+    states.andNot(view.removedStates());
+    return of(view, states);
+  }
+
+  /**
+   * Considers all states of the restricted model, in its numbering.
+   */
+  public static QualitativeReachability of(RestrictedModel<?> restrictedModel) {
+    return of(restrictedModel.model());
+  }
+
+  /**
+   * @return the states from which no scheduler reaches the target with positive probability.
+   */
+  public NatBitSet prob0A(NatBitSet target) {
+    BitSet reaching = reachBackward(targetStates(target), null, null);
+    return NatBitSets.asSet(complement(reaching));
+  }
+
+  /**
+   * @return the states from which some scheduler avoids the target almost surely.
+   */
+  public NatBitSet prob0E(NatBitSet target) {
+    return NatBitSets.asSet(complement(forcedReach(targetStates(target))));
+  }
+
+  /**
+   * @return the states from which all schedulers reach the target almost surely.
+   */
+  public NatBitSet prob1A(NatBitSet target) {
+    // The minimal probability is below 1 iff some scheduler reaches a state of minimal probability
+    // 0 (or leaves the considered states) without visiting the target before
+    BitSet targetStates = targetStates(target);
+    BitSet avoiding = complement(forcedReach(targetStates));
+    avoiding.or(leavingStates);
+    avoiding.andNot(targetStates);
+    BitSet notAlmostSure = reachBackward(avoiding, targetStates, null);
+    return NatBitSets.asSet(complement(notAlmostSure));
+  }
+
+  /**
+   * @return the states from which some scheduler reaches the target almost surely.
+   */
+  public NatBitSet prob1E(NatBitSet target) {
+    BitSet targetStates = targetStates(target);
+    // Greatest fixpoint: remove all states which cannot reach the target while staying within the
+    // current candidates, together with all actions leading to them
+    BitSet candidates = (BitSet) stateBits.clone();
+    BitSet disabledActions = (BitSet) leavingActions.clone();
+    int iterations = 0;
+    while (true) {
+      iterations += 1;
+      BitSet reaching = reachBackward(targetStates, null, disabledActions);
+      BitSet removed = (BitSet) candidates.clone();
+      removed.andNot(reaching);
+      if (removed.isEmpty()) {
+        break;
+      }
+      for (int state = removed.nextSetBit(0); state >= 0; state = removed.nextSetBit(state + 1)) {
+        for (int index = predecessorOffsets[state]; index < predecessorOffsets[state + 1];
+            index++) {
+          disabledActions.set(predecessorAction[index]);
+        }
+      }
+      candidates = reaching;
+    }
+    logger.log(Level.FINER, "Prob1E converged after {0} iterations", iterations);
+    return NatBitSets.asSet(candidates);
+  }
+
+  private BitSet targetStates(NatBitSet target) {
+    BitSet targetStates = NatBitSets.toBitSet(target);
+    targetStates.and(stateBits);
+    return targetStates;
+  }
+
+  private BitSet complement(BitSet set) {
+    BitSet complement = (BitSet) stateBits.clone();
+    complement.andNot(set);
+    return complement;
+  }
+
+  // States which can reach the initial ones by some action not disabled, without passing through
+  // the avoided states (which themselves are only included if initial)
+  private BitSet reachBackward(BitSet initial, @Nullable BitSet avoid,
+      @Nullable BitSet disabledActions) {
+    BitSet reached = (BitSet) initial.clone();
+    BitSet frontier = (BitSet) initial.clone();
+    while (!frontier.isEmpty()) {
+      BitSet next = new BitSet();
+      for (int state = frontier.nextSetBit(0); state >= 0;
+          state = frontier.nextSetBit(state + 1)) {
+        for (int index = predecessorOffsets[state]; index < predecessorOffsets[state + 1];
+            index++) {
+          int action = predecessorAction[index];
+          int predecessor = actionState[action];
+          if (reached.get(predecessor) || (avoid != null && avoid.get(predecessor))
+              || (disabledActions != null && disabledActions.get(action))) {
+            continue;
+          }
+          reached.set(predecessor);
+          next.set(predecessor);
+        }
+      }
+      frontier = next;
+    }
+    return reached;
+  }
+
+  // States from which all schedulers reach the initial ones with positive probability, i.e. all
+  // actions of which have a successor in the set. States without actions are never added
+  private BitSet forcedReach(BitSet initial) {
+    int[] remainingActions = new int[actionOffsets.length - 1];
+    for (int state = 0; state < remainingActions.length; state++) {
+      remainingActions[state] = actionOffsets[state + 1] - actionOffsets[state];
+    }
+    BitSet hitActions = new BitSet(actionState.length);
+    BitSet reached = (BitSet) initial.clone();
+    BitSet frontier = (BitSet) initial.clone();
+    while (!frontier.isEmpty()) {
+      BitSet next = new BitSet();
+      for (int state = frontier.nextSetBit(0); state >= 0;
+          state = frontier.nextSetBit(state + 1)) {
+        for (int index = predecessorOffsets[state]; index < predecessorOffsets[state + 1];
+            index++) {
+          int action = predecessorAction[index];
+          if (hitActions.get(action)) {
+            continue;
+          }
+          hitActions.set(action);
+          int predecessor = actionState[action];
+          remainingActions[predecessor] -= 1;
+          if (remainingActions[predecessor] == 0 && !reached.get(predecessor)) {
+            reached.set(predecessor);
+            next.set(predecessor);
+          }
+        }
+      }
+      frontier = next;
+    }
+    return reached;
+  }
+}
@@ -1,7 +1,9 @@
 package de.tum.in.probmodels.graph;
 
 import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.probmodels.model.CollapseView;
 import de.tum.in.probmodels.model.Model;
+import de.tum.in.probmodels.util.CancellationToken;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,16 +13,39 @@ import java.util.logging.Logger;
 public class SccComponentAnalyser implements ComponentAnalyser {
   private static final Logger logger = Logger.getLogger(SccComponentAnalyser.class.getName());
 
+  private final boolean concurrentReads;
+
+  public SccComponentAnalyser() {
+    this(false);
+  }
+
+  /**
+   * @param concurrentReads whether the analysed models allow concurrent reads, in which case large
+   *     models are decomposed in parallel. A {@link CollapseView} updates caches on reads and is
+   *     always decomposed sequentially.
+   */
+  public SccComponentAnalyser(boolean concurrentReads) {
+    this.concurrentReads = concurrentReads;
+  }
+
   @Override
   public List<NatBitSet> findComponents(Model model, IntSet states) {
     logger.log(Level.FINE, "\nStarting BSCC search");
 
-    List<NatBitSet> sccs = SccDecomposition.computeSccs(model::getSuccessors,
-        model.getInitialStates(), states::contains, false);
-    List<NatBitSet> bsccs = new ArrayList<>(sccs);
-    bsccs.removeIf(scc -> scc.intStream().anyMatch(state ->
-        model.someSuccessorsMatch(state, successor -> !scc.contains(successor))));
-
+    if (concurrentReads && !(model instanceof CollapseView)
+        && model.getNumStates() >= SccDecomposition.PARALLEL_THRESHOLD
+        && SccDecomposition.isParallelismAvailable()) {
+      List<NatBitSet> sccs = SccDecomposition.computeSccsParallel(model::getSuccessors,
+          model.getInitialStates(), states::contains, false, CancellationToken.none());
+      List<NatBitSet> bsccs = new ArrayList<>(sccs);
+      bsccs.removeIf(scc -> scc.intStream().anyMatch(state ->
+          model.someSuccessorsMatch(state, successor -> !scc.contains(successor))));
+      return bsccs;
+    }
+    // States of a model are numbered densely
+    List<NatBitSet> bsccs = SccDecomposition.computeBsccsDense(model::getSuccessors,
+        model.getNumStates(), model.getInitialStates(), states::contains, Integer.MAX_VALUE,
+        CancellationToken.none());
     return bsccs;
   }
 }
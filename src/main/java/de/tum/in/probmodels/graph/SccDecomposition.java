@@ -1,9 +1,13 @@
 package de.tum.in.probmodels.graph;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
 import de.tum.in.naturals.set.NatBitSet;
 import de.tum.in.naturals.set.NatBitSets;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
 import it.unimi.dsi.fastutil.ints.Int2ObjectFunction;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
@@ -11,27 +15,38 @@ import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntCollection;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
 import it.unimi.dsi.fastutil.ints.IntSet;
-import it.unimi.dsi.fastutil.ints.IntStack;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Deque;
 import java.util.List;
 import java.util.PrimitiveIterator;
+import java.util.concurrent.ForkJoinPool;
 import java.util.function.IntPredicate;
 
 /**
  * Finds the SCCs of a given graph / transition system using Tarjan's algorithm. Taken from owl.
+ * Large graphs whose successor function allows concurrent calls can be decomposed in parallel,
+ * see {@link #computeSccsParallel(Int2ObjectFunction, IntCollection, IntPredicate, boolean,
+ * CancellationToken)}. If only the bottom SCCs are of interest, {@link
+ * #computeBsccs(Int2ObjectFunction, IntCollection, IntPredicate, int, CancellationToken)} avoids
+ * building all other SCCs. For graphs with states numbered densely from {@code 0}, the
+ * {@code Dense} variants and {@link #computeSccs(int[], int[], IntCollection, IntPredicate, boolean,
+ * CancellationToken)} keep all information in arrays instead of hash maps.
  */
 public final class SccDecomposition {
-  // TODO Parallel tarjan?
-  // TODO Optimize for only bsccs
+  /**
+   * Number of states of a graph from which the parallel algorithm pays off. Only a hint for callers
+   * which opted into {@link #computeSccsParallel(Int2ObjectFunction, IntCollection, IntPredicate,
+   * boolean, CancellationToken)}, the other methods never switch to it on their own.
+   */
+  public static final int PARALLEL_THRESHOLD = 1 << 16;
 
   // Initial value for the low link - since we update the low-link whenever we find a link to a
   // state we can use this to detect trivial SCCs. MAX_VALUE is important for "<" comparisons
   static final int NO_LINK = Integer.MAX_VALUE;
 
-  private final IntStack explorationStack = new IntArrayList();
+  private final IntArrayList explorationStack = new IntArrayList();
   private final IntPredicate restriction;
   private final boolean includeTransient;
   private final Deque<TarjanState> path = new ArrayDeque<>();
@@ -39,27 +54,44 @@ public final class SccDecomposition {
   private final List<NatBitSet> sccs = new ArrayList<>();
   private final Int2ObjectMap<TarjanState> stateMap = new Int2ObjectOpenHashMap<>();
   private final Int2ObjectFunction<? extends PrimitiveIterator.OfInt> successorFunction;
+  private final CancellationToken cancellation;
+  // Only collect SCCs without outgoing edges and stop once that many have been found
+  private final boolean bottomOnly;
+  private final int maximalSccs;
   private int index = 0;
 
   private SccDecomposition(Int2ObjectFunction<? extends PrimitiveIterator.OfInt> successorFunction,
-      IntPredicate restriction, boolean includeTransient) {
+      IntPredicate restriction, boolean includeTransient, boolean bottomOnly, int maximalSccs,
+      CancellationToken cancellation) {
     this.successorFunction = successorFunction;
     this.restriction = restriction;
     this.includeTransient = includeTransient;
+    this.bottomOnly = bottomOnly;
+    this.maximalSccs = maximalSccs;
+    this.cancellation = cancellation;
   }
 
   public static List<NatBitSet> computeSccs(
       Int2ObjectFunction<? extends PrimitiveIterator.OfInt> function,
       IntCollection initialStates, IntPredicate restriction, boolean includeTransient) {
-    SccDecomposition decomposition = new SccDecomposition(function, restriction, includeTransient);
+    return computeSccs(function, initialStates, restriction, includeTransient,
+        CancellationToken.none());
+  }
 
-    initialStates.forEach((int initialState) -> {
-      if (restriction.test(initialState)
-          && !decomposition.stateMap.containsKey(initialState)
-          && !decomposition.processedNodes.contains(initialState)) {
-        decomposition.run(initialState);
-      }
-    });
+  /**
+   * Computes the SCCs reachable from the initial states. The function is only called from the
+   * calling thread.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the list of SCCs
+   *     found so far, each of which is complete.
+   */
+  public static List<NatBitSet> computeSccs(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> function,
+      IntCollection initialStates, IntPredicate restriction, boolean includeTransient,
+      CancellationToken cancellation) {
+    SccDecomposition decomposition = new SccDecomposition(function, restriction,
+        includeTransient, false, Integer.MAX_VALUE, cancellation);
+    decomposition.runAll(initialStates);
 
     assert includeTransient
         || decomposition.sccs.stream().noneMatch(scc -> isTransient(function, scc));
@@ -68,6 +100,114 @@ public final class SccDecomposition {
     return Collections.unmodifiableList(decomposition.sccs);
   }
 
+  public static List<NatBitSet> computeBsccs(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> function,
+      IntCollection initialStates, IntPredicate restriction) {
+    return computeBsccs(function, initialStates, restriction, Integer.MAX_VALUE,
+        CancellationToken.none());
+  }
+
+  /**
+   * Computes the non-transient bottom SCCs reachable from the initial states, i.e. the SCCs from
+   * which no edge leads outside. Edges to states outside the restriction count as leaving, too.
+   * Whether an SCC is bottom is tracked during the search, all other SCCs are discarded right
+   * away instead of being built.
+   *
+   * <p>The search stops as soon as {@code maximalBsccs} BSCCs have been found, so e.g. a bound of
+   * one only explores until the first BSCC reachable from the initial states is closed. Since
+   * Tarjan's algorithm closes SCCs bottom-up, this typically is much earlier than a full
+   * search.</p>
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the list of BSCCs
+   *     found so far, each of which is complete.
+   */
+  public static List<NatBitSet> computeBsccs(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> function,
+      IntCollection initialStates, IntPredicate restriction, int maximalBsccs,
+      CancellationToken cancellation) {
+    checkArgument(maximalBsccs > 0, "Invalid number of BSCCs %s", maximalBsccs);
+    SccDecomposition decomposition = new SccDecomposition(function, restriction, false, true,
+        maximalBsccs, cancellation);
+    decomposition.runAll(initialStates);
+
+    assert decomposition.sccs.stream().noneMatch(scc -> isTransient(function, scc));
+    assert decomposition.sccs.stream().allMatch(scc -> isBscc(function, scc));
+
+    return Collections.unmodifiableList(decomposition.sccs);
+  }
+
+
+  /**
+   * Computes the SCCs reachable from the initial states on all cores of the common fork-join
+   * pool. The function is called concurrently and thus must be thread safe. The SCCs are ordered
+   * as by Tarjan's algorithm, i.e. every SCC precedes those SCCs which can reach it.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the list of SCCs
+   *     found so far in no particular order, each of which is complete.
+   */
+  public static List<NatBitSet> computeSccsParallel(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> function,
+      IntCollection initialStates, IntPredicate restriction, boolean includeTransient,
+      CancellationToken cancellation) {
+    List<NatBitSet> sccs = ParallelSccDecomposition.computeSccs(function, initialStates,
+        restriction, includeTransient, cancellation);
+    assert includeTransient || sccs.stream().noneMatch(scc -> isTransient(function, scc));
+    return sccs;
+  }
+
+  /**
+   * Computes the SCCs reachable from the initial states of a graph whose states are numbered
+   * {@code 0} to {@code numStates - 1}. Uses memory linear in {@code numStates}, independent of
+   * the reachable part, but is considerably faster than the general variant on large graphs. The
+   * result is the same as for {@link #computeSccs(Int2ObjectFunction, IntCollection, IntPredicate,
+   * boolean, CancellationToken)} without parallelism.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the list of SCCs
+   *     found so far, each of which is complete.
+   */
+  public static List<NatBitSet> computeSccsDense(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> function, int numStates,
+      IntCollection initialStates, IntPredicate restriction, boolean includeTransient,
+      CancellationToken cancellation) {
+    List<NatBitSet> sccs = DenseSccDecomposition.ofFunction(function, numStates, restriction,
+        includeTransient, false, Integer.MAX_VALUE, cancellation).run(initialStates);
+    assert includeTransient || sccs.stream().noneMatch(scc -> isTransient(function, scc));
+    return sccs;
+  }
+
+  /**
+   * Variant of {@link #computeSccsDense(Int2ObjectFunction, int, IntCollection, IntPredicate,
+   * boolean, CancellationToken)} for a graph given in compressed sparse row form: the successors of
+   * state {@code s} are {@code successors[offsets[s]]} to {@code successors[offsets[s + 1] - 1]},
+   * there are {@code offsets.length - 1} states. No iterators are allocated.
+   */
+  public static List<NatBitSet> computeSccs(int[] offsets, int[] successors,
+      IntCollection initialStates, IntPredicate restriction, boolean includeTransient,
+      CancellationToken cancellation) {
+    return DenseSccDecomposition.ofArrays(offsets, successors, restriction, includeTransient,
+        false, Integer.MAX_VALUE, cancellation).run(initialStates);
+  }
+
+  /**
+   * Variant of {@link #computeBsccs(Int2ObjectFunction, IntCollection, IntPredicate, int,
+   * CancellationToken)} for densely numbered states, see {@link
+   * #computeSccsDense(Int2ObjectFunction, int, IntCollection, IntPredicate, boolean,
+   * CancellationToken)}.
+   */
+  public static List<NatBitSet> computeBsccsDense(
+      Int2ObjectFunction<? extends PrimitiveIterator.OfInt> function, int numStates,
+      IntCollection initialStates, IntPredicate restriction, int maximalBsccs,
+      CancellationToken cancellation) {
+    checkArgument(maximalBsccs > 0, "Invalid number of BSCCs %s", maximalBsccs);
+    List<NatBitSet> bsccs = DenseSccDecomposition.ofFunction(function, numStates, restriction,
+        false, true, maximalBsccs, cancellation).run(initialStates);
+    assert bsccs.stream().allMatch(scc -> isBscc(function, scc));
+    return bsccs;
+  }
+
+  static boolean isParallelismAvailable() {
+    return ForkJoinPool.getCommonPoolParallelism() > 1;
+  }
 
   public static boolean isTransient(Int2ObjectFunction<? extends PrimitiveIterator.OfInt> function,
       NatBitSet scc) {
@@ -108,6 +248,18 @@ public final class SccDecomposition {
     return state;
   }
 
+  private void runAll(IntCollection initialStates) {
+    PrimitiveIterator.OfInt iterator = initialStates.iterator();
+    while (iterator.hasNext() && sccs.size() < maximalSccs) {
+      int initialState = iterator.nextInt();
+      if (restriction.test(initialState)
+          && !stateMap.containsKey(initialState)
+          && !processedNodes.contains(initialState)) {
+        run(initialState);
+      }
+    }
+  }
+
   @SuppressWarnings("ObjectEquality")
   private void run(int initial) {
     assert path.isEmpty();
@@ -116,6 +268,9 @@ public final class SccDecomposition {
     //noinspection LabeledStatement - Without the label this method gets ugly
     outer:
     while (true) {
+      if (cancellation.isCancelled()) {
+        throw new CancelledException(Collections.unmodifiableList(sccs));
+      }
       int node = state.node;
       int nodeIndex = state.nodeIndex;
 
@@ -132,6 +287,8 @@ public final class SccDecomposition {
         }
 
         if (processedNodes.contains(successor) || !restriction.test(successor)) {
+          // The successor is in an already closed SCC or outside, so this one is not bottom
+          state.leaving = true;
           continue;
         }
 
@@ -162,7 +319,8 @@ public final class SccDecomposition {
       // Finished handling this state by identifying whether it is a root of an SCC and
       // backtracking information if not. There are three possible cases:
       // 1) No link to this state has been found at all (-> transient SCC)
-      // 2) This state is its own low-link (-> root of true SCC)
+      // 2) This state is its own low-link (-> root of true SCC, dropped right away if only BSCCs
+      //    are of interest and some edge leaves it)
       // 3) State has true low link (-> non-root element of SCC)
 
       int lowLink = state.lowLink;
@@ -176,7 +334,19 @@ public final class SccDecomposition {
         }
 
         explorationStack.popInt();
+        stateMap.remove(node);
         processedNodes.add(node);
+        markLeaving();
+      } else if (lowLink == nodeIndex && bottomOnly && state.leaving) {
+        // Root of an SCC with an outgoing edge, only mark its states as processed without building
+        // the SCC
+        int stackNode;
+        do {
+          stackNode = explorationStack.popInt();
+          stateMap.remove(stackNode);
+          processedNodes.add(stackNode);
+        } while (stackNode != node); // NOPMD
+        markLeaving();
       } else if (lowLink == nodeIndex) {
         // This node can't reach anything younger than itself, thus by invariant it is the root of
         // an SCC. We now build the SCC and remove all now superfluous information (to keep the used
@@ -205,6 +375,14 @@ public final class SccDecomposition {
         // we need to know which states have been processed.
         stateMap.keySet().removeAll(scc);
         processedNodes.addAll(scc);
+        markLeaving();
+        if (sccs.size() >= maximalSccs) {
+          // Abandon the remaining search, the states on the stack belong to no found SCC
+          path.clear();
+          explorationStack.clear();
+          stateMap.clear();
+          break;
+        }
       } else {
         // If this state is not a root, update the predecessor (which has to exist)
         assert !path.isEmpty() && lowLink < nodeIndex;
@@ -220,6 +398,8 @@ public final class SccDecomposition {
           // the predecessor
           predecessorState.lowLink = lowLink;
         }
+        // By the invariant, the predecessor belongs to the same SCC
+        predecessorState.leaving |= state.leaving;
       }
 
       // Backtrack on the work-stack
@@ -233,11 +413,20 @@ public final class SccDecomposition {
     assert path.isEmpty();
   }
 
+  private void markLeaving() {
+    // The predecessor (if any) has an edge into the just closed SCC
+    if (!path.isEmpty()) {
+      path.getFirst().leaving = true;
+    }
+  }
+
   private static final class TarjanState {
     final int node;
     final int nodeIndex;
     final PrimitiveIterator.OfInt successorIterator;
     int lowLink;
+    // Whether some state of the SCC containing this state found so far has an edge leaving it
+    boolean leaving = false;
 
     TarjanState(int node, int nodeIndex, PrimitiveIterator.OfInt successorIterator) {
       this.node = node;
@@ -0,0 +1,224 @@
+package de.tum.in.probmodels.model;
+
+import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.naturals.set.NatBitSets;
+import explicit.SuccessorsIterator;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import prism.ModelType;
+
+/**
+ * Read-only view of a model which only contains the actions accepted by a filter. Actions are
+ * re-indexed consecutively per state, {@link #originalIndex(int, int)} maps them back to the
+ * underlying model. The view does not copy any actions, changes of the underlying model are
+ * visible immediately. The accepted actions of each state are cached on first use, so whenever
+ * the filter result for an action changes, the owner has to call {@link #invalidate(int)}.
+ */
+public class ActionFilterView<M extends Model> extends AbstractModel {
+  @FunctionalInterface
+  public interface ActionFilter {
+    // action is the index of the action in the underlying model
+    boolean test(int state, int action);
+  }
+
+  private final M model;
+  private final ActionFilter filter;
+  // Per state, the accepted actions among its actions at the time of caching
+  private final Int2ObjectMap<Selection> accepted = new Int2ObjectOpenHashMap<>();
+
+  public ActionFilterView(M model, ActionFilter filter) {
+    this.model = model;
+    this.filter = filter;
+  }
+
+  public M getModel() {
+    return model;
+  }
+
+  /**
+   * @return the index in the underlying model of the given action of this view.
+   */
+  public int originalIndex(int state, int action) {
+    int[] actions = accepted(state);
+    if (action < 0 || action >= actions.length) {
+      throw new IndexOutOfBoundsException(
+          String.format("State %d has no action %d", state, action));
+    }
+    return actions[action];
+  }
+
+  /**
+   * Drops the cached actions of the state, has to be called whenever the filter result for one of
+   * its actions changes. Added actions are detected without this.
+   */
+  public void invalidate(int state) {
+    accepted.remove(state);
+  }
+
+  /**
+   * Drops the cached actions of all states.
+   */
+  public void invalidateAll() {
+    accepted.clear();
+  }
+
+  private int[] accepted(int state) {
+    int count = model.getNumChoices(state);
+    Selection selection = accepted.get(state);
+    if (selection == null || selection.actionCount != count) {
+      int[] indices = new int[count];
+      int acceptedCount = 0;
+      for (int index = 0; index < count; index++) {
+        if (filter.test(state, index)) {
+          indices[acceptedCount] = index;
+          acceptedCount += 1;
+        }
+      }
+      selection = new Selection(count, acceptedCount < count
+          ? Arrays.copyOf(indices, acceptedCount) : indices);
+      accepted.put(state, selection);
+    }
+    return selection.indices;
+  }
+
+  // The elements of the list at the given indices, without copying
+  private static <T> List<T> select(List<T> list, int[] indices) {
+    if (indices.length == list.size()) {
+      return list;
+    }
+    return new AbstractList<>() {
+      @Override
+      public T get(int index) {
+        return list.get(indices[index]);
+      }
+
+      @Override
+      public int size() {
+        return indices.length;
+      }
+    };
+  }
+
+  @Override
+  public ModelType getModelType() {
+    return model.getModelType();
+  }
+
+  @Override
+  public int getNumStates() {
+    return model.getNumStates();
+  }
+
+  @Override
+  public int getNumTransitions() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public IntCollection getInitialStates() {
+    return model.getInitialStates();
+  }
+
+  @Override
+  public boolean isInitialState(int state) {
+    return model.isInitialState(state);
+  }
+
+  @Override
+  public int getNumChoices(int state) {
+    return accepted(state).length;
+  }
+
+  @Override
+  public List<Distribution> getChoices(int state) {
+    return select(model.getChoices(state), accepted(state));
+  }
+
+  @Override
+  public Distribution getChoice(int state, int action) {
+    return model.getChoice(state, originalIndex(state, action));
+  }
+
+  @Override
+  public List<Action> getActions(int state) {
+    return select(model.getActions(state), accepted(state));
+  }
+
+  @Override
+  public SuccessorsIterator getSuccessors(int s) {
+    List<Distribution> choices = getChoices(s);
+    if (choices.isEmpty()) {
+      return SuccessorsIterator.empty();
+    }
+    if (choices.size() == 1) {
+      return SuccessorsIterator.from(choices.get(0).support().iterator(), true);
+    }
+
+    NatBitSet union = NatBitSets.set();
+    choices.forEach(d -> union.or(d.support()));
+    return SuccessorsIterator.from(union.iterator(), true);
+  }
+
+
+  // Mutators
+
+  @Override
+  public void setInitialStates(Collection<Integer> initialStates) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addChoice(int state, Distribution distribution) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addChoice(int state, Action action) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setChoice(int state, int action, Distribution distribution) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void setActions(int state, List<Action> actions) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addInitialState(int i) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void clearState(int i) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public int addState() {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public void addStates(int numToAdd) {
+    throw new UnsupportedOperationException();
+  }
+
+  private static final class Selection {
+    final int actionCount;
+    final int[] indices;
+
+    Selection(int actionCount, int[] indices) {
+      this.actionCount = actionCount;
+      this.indices = indices;
+    }
+  }
+}
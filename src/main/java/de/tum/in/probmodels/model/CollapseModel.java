@@ -1,14 +1,46 @@
 package de.tum.in.probmodels.model;
 
 import de.tum.in.naturals.set.NatBitSet;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.List;
 import prism.ModelType;
 
 public interface CollapseModel<M extends Model> extends Model {
+  // Partitions are collapsed in chunks of this size when a cancellation token is given
+  int CANCELLABLE_COLLAPSE_CHUNK = 256;
+
   IntList collapse(List<? extends IntSet> stateList);
 
+  /**
+   * Collapses the partitions like {@link #collapse(List)}, in chunks of partitions. The token is
+   * checked between chunks, so the model is consistent when cancelled.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the {@link
+   *     IntList} of representatives of the partitions collapsed so far, which are a prefix of the
+   *     given list.
+   */
+  default IntList collapse(List<? extends IntSet> stateList, CancellationToken cancellation) {
+    if (stateList.size() <= CANCELLABLE_COLLAPSE_CHUNK) {
+      if (cancellation.checkNow()) {
+        throw new CancelledException(new IntArrayList());
+      }
+      return collapse(stateList);
+    }
+    IntList representatives = new IntArrayList(stateList.size());
+    for (int from = 0; from < stateList.size(); from += CANCELLABLE_COLLAPSE_CHUNK) {
+      if (cancellation.checkNow()) {
+        throw new CancelledException(representatives);
+      }
+      int to = Math.min(from + CANCELLABLE_COLLAPSE_CHUNK, stateList.size());
+      representatives.addAll(collapse(stateList.subList(from, to)));
+    }
+    return representatives;
+  }
+
   int representative(int state);
 
   boolean isRemoved(int state);
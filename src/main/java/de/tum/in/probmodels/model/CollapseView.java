@@ -11,6 +11,7 @@ import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntAVLTreeSet;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntIterator;
 import it.unimi.dsi.fastutil.ints.IntList;
 import it.unimi.dsi.fastutil.ints.IntLists;
 import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
@@ -207,12 +208,15 @@ public class CollapseView<M extends Model> extends AbstractModel implements Coll
 
 
   @Override
-  // Given a partitioning of states, collapses each partition. Returns a list of representatives
-  public IntList collapse(List<? extends IntSet> stateList) {
-    if (stateList.isEmpty()) {
+  // Given a partitioning of states, collapses each partition. Returns a list of representatives.
+  // Partitions may contain states collapsed earlier (e.g. a component which grew), these are
+  // replaced by their representatives
+  public IntList collapse(List<? extends IntSet> partitions) {
+    if (partitions.isEmpty()) {
       //noinspection AssignmentOrReturnOfFieldWithMutableType
       return IntLists.EMPTY_LIST;
     }
+    List<? extends IntSet> stateList = withRepresentatives(partitions);
 
     // Ensures that no 2 partitions intersect
     assert stateList.stream().allMatch(states ->
@@ -329,6 +333,29 @@ public class CollapseView<M extends Model> extends AbstractModel implements Coll
     return representatives;
   }
 
+  // Replaces removed states in the partitions by their representatives
+  private List<? extends IntSet> withRepresentatives(List<? extends IntSet> partitions) {
+    if (removedStates.isEmpty()) {
+      return partitions;
+    }
+    List<IntSet> mapped = new ArrayList<>(partitions.size());
+    for (IntSet states : partitions) {
+      boolean anyRemoved = false;
+      IntIterator iterator = states.iterator();
+      while (!anyRemoved && iterator.hasNext()) {
+        anyRemoved = removedStates.contains(iterator.nextInt());
+      }
+      if (anyRemoved) {
+        NatBitSet representatives = NatBitSets.set();
+        states.forEach((int state) -> representatives.set(representative(state)));
+        mapped.add(representatives);
+      } else {
+        mapped.add(states);
+      }
+    }
+    return mapped;
+  }
+
   // collapses a single set of states. Returns a representative
   private int collapse(IntSet states) {
     assert !states.isEmpty();
@@ -121,7 +121,7 @@ public class MapDistribution implements Distribution {
   @Override
   public int sampleWeighted(WeightFunction weights) {
     Int2DoubleMap weighted = new Int2DoubleOpenHashMap(map);
-    for (Int2DoubleMap.Entry entry : map.int2DoubleEntrySet()) {
+    for (Int2DoubleMap.Entry entry : weighted.int2DoubleEntrySet()) {
       entry.setValue(weights.accept(entry.getIntKey(), entry.getDoubleValue()));
     }
     return Sample.sample(weighted);
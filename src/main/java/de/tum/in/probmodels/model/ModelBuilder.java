@@ -12,12 +12,24 @@ import de.tum.in.naturals.unionfind.IntUnionFind;
 import de.tum.in.probmodels.generator.Choice;
 import de.tum.in.probmodels.generator.Generator;
 import de.tum.in.probmodels.graph.Mec;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.function.IntConsumer;
 import java.util.function.IntFunction;
 import java.util.function.IntUnaryOperator;
@@ -29,6 +41,18 @@ public final class ModelBuilder {
   }
 
   public static StateToIndex<State> build(Model model, Generator<State> gen) {
+    return build(model, gen, CancellationToken.none());
+  }
+
+  /**
+   * Builds the model reachable from the initial states of the generator.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the {@link
+   *     StateToIndex} of all states added so far, states which have not been expanded yet have no
+   *     choices in the model.
+   */
+  public static StateToIndex<State> build(Model model, Generator<State> gen,
+      CancellationToken cancellation) {
     Queue<State> queue = new ArrayDeque<>(gen.initialStates());
     StateToIndex<State> stateIndices = new StateToIndex<>();
 
@@ -39,6 +63,9 @@ public final class ModelBuilder {
     }
 
     while (!queue.isEmpty()) {
+      if (cancellation.isCancelled()) {
+        throw new CancelledException(stateIndices);
+      }
       State state = queue.poll();
       assert stateIndices.contains(state);
       int stateId = stateIndices.getStateId(state);
@@ -60,6 +87,226 @@ public final class ModelBuilder {
     return stateIndices;
   }
 
+  /**
+   * Builds the model reachable from the initial states of the generator like {@link #build(Model,
+   * Generator)}, but runs the construction as a three stage pipeline. A background thread expands
+   * batches of frontier states via {@link Generator#choicesBatch(List)}, the calling thread
+   * assigns ids to the successors, and a second background thread appends the resulting
+   * distributions to the model. Stages are connected by queues holding at most {@code
+   * queueCapacity} batches. The generator is only ever accessed from a single thread, and so is
+   * the model once the pipeline is running.
+   */
+  public static <S> StateToIndex<S> buildPipelined(Model model, Generator<S> gen, int batchSize,
+      int queueCapacity) {
+    return buildPipelined(model, gen, batchSize, queueCapacity, CancellationToken.none());
+  }
+
+  /**
+   * Like {@link #buildPipelined(Model, Generator, int, int)}, checking the token once per batch.
+   *
+   * @throws CancelledException if the token is cancelled. The partial result is the {@link
+   *     StateToIndex} of all states added so far, see {@link #build(Model, Generator,
+   *     CancellationToken)}.
+   */
+  public static <S> StateToIndex<S> buildPipelined(Model model, Generator<S> gen, int batchSize,
+      int queueCapacity, CancellationToken cancellation) {
+    checkArgument(batchSize > 0, "Batch size must be positive, got %s", batchSize);
+    checkArgument(queueCapacity > 0, "Queue capacity must be positive, got %s", queueCapacity);
+
+    StateToIndex<S> stateIndices = new StateToIndex<>();
+    List<S> initialStates = new ArrayList<>();
+    for (S initialState : gen.initialStates()) {
+      if (stateIndices.contains(initialState)) {
+        continue;
+      }
+      int id = model.addState();
+      stateIndices.addState(initialState, id);
+      model.addInitialState(id);
+      initialStates.add(initialState);
+    }
+    if (initialStates.isEmpty()) {
+      return stateIndices;
+    }
+
+    // The frontier is unbounded (as the queue of the sequential variant), since it closes the
+    // cycle of the pipeline - bounding it could lead to a deadlock between the first two stages
+    BlockingQueue<List<S>> frontier = new LinkedBlockingQueue<>();
+    BlockingQueue<ExpandedBatch<S>> expanded = new ArrayBlockingQueue<>(queueCapacity);
+    BlockingQueue<InternedBatch> interned = new ArrayBlockingQueue<>(queueCapacity);
+
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    boolean cancelled = false;
+    try {
+      Future<?> expansion = executor.submit(() -> expandBatches(gen, frontier, expanded));
+      Future<?> insertion = executor.submit(() -> insertBatches(model, interned));
+
+      int nextStateId = model.getNumStates();
+      long pending = 0;
+      for (int from = 0; from < initialStates.size(); from += batchSize) {
+        List<S> batch = initialStates.subList(from, Math.min(from + batchSize,
+            initialStates.size()));
+        frontier.add(new ArrayList<>(batch));
+        pending += batch.size();
+      }
+
+      while (pending > 0) {
+        if (cancellation.checkNow()) {
+          cancelled = true;
+          break;
+        }
+        ExpandedBatch<S> batch = expanded.take();
+        if (batch.states == null) {
+          // Expansion stage terminated abnormally, the cause is reported by its future
+          break;
+        }
+
+        int batchStates = batch.states.size();
+        int[] stateIds = new int[batchStates];
+        List<List<Distribution>> distributions = new ArrayList<>(batchStates);
+        List<S> newStates = new ArrayList<>(batchSize);
+        for (int i = 0; i < batchStates; i++) {
+          S state = batch.states.get(i);
+          assert stateIndices.contains(state);
+          stateIds[i] = stateIndices.getStateId(state);
+
+          Collection<Choice<S>> choices = batch.choices.get(i);
+          List<Distribution> stateDistributions = new ArrayList<>(choices.size());
+          for (Choice<S> choice : choices) {
+            DistributionBuilder builder = Distributions.defaultBuilder();
+            for (var entry : choice.transitions().object2DoubleEntrySet()) {
+              S successor = entry.getKey();
+              int successorId = stateIndices.getStateId(successor);
+              if (successorId == -1) {
+                successorId = nextStateId;
+                nextStateId += 1;
+                stateIndices.addState(successor, successorId);
+                newStates.add(successor);
+                if (newStates.size() == batchSize) {
+                  frontier.add(newStates);
+                  pending += newStates.size();
+                  newStates = new ArrayList<>(batchSize);
+                }
+              }
+              builder.add(successorId, entry.getDoubleValue());
+            }
+            stateDistributions.add(builder.build());
+          }
+          distributions.add(stateDistributions);
+        }
+        if (!newStates.isEmpty()) {
+          frontier.add(newStates);
+          pending += newStates.size();
+        }
+        pending -= batchStates;
+
+        putChecked(interned, new InternedBatch(stateIds, distributions, nextStateId), insertion);
+      }
+      frontier.add(List.of());
+      putChecked(interned, InternedBatch.END, insertion);
+
+      if (!cancelled) {
+        expansion.get();
+      }
+      // Let the insertion stage finish, so that the model is consistent with the state indices.
+      // The expansion stage might still be busy and is interrupted on shutdown.
+      insertion.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while building model", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+    if (cancelled) {
+      throw new CancelledException(stateIndices);
+    }
+    return stateIndices;
+  }
+
+  private static <S> Void expandBatches(Generator<S> gen, BlockingQueue<List<S>> frontier,
+      BlockingQueue<ExpandedBatch<S>> expanded) throws InterruptedException {
+    try {
+      while (true) {
+        List<S> states = frontier.take();
+        if (states.isEmpty()) {
+          return null;
+        }
+        List<Collection<Choice<S>>> choices = gen.choicesBatch(states);
+        assert choices.size() == states.size();
+        expanded.put(new ExpandedBatch<>(states, choices));
+      }
+    } catch (RuntimeException | Error e) {
+      // Wake up the interning stage, which otherwise would wait for this batch forever
+      expanded.put(new ExpandedBatch<>(null, null));
+      throw e;
+    }
+  }
+
+  private static Void insertBatches(Model model, BlockingQueue<InternedBatch> interned)
+      throws InterruptedException {
+    while (true) {
+      InternedBatch batch = interned.take();
+      if (batch == InternedBatch.END) { // NOPMD
+        return null;
+      }
+      int missingStates = batch.stateCount - model.getNumStates();
+      if (missingStates > 0) {
+        model.addStates(missingStates);
+      }
+      for (int i = 0; i < batch.stateIds.length; i++) {
+        int stateId = batch.stateIds[i];
+        for (Distribution distribution : batch.distributions.get(i)) {
+          model.addChoice(stateId, distribution);
+        }
+      }
+    }
+  }
+
+  private static <T> void putChecked(BlockingQueue<T> queue, T element, Future<?> consumer)
+      throws InterruptedException, ExecutionException {
+    while (!queue.offer(element, 100, TimeUnit.MILLISECONDS)) {
+      if (consumer.isDone()) {
+        // Consumer stopped without taking the element - surface its failure
+        consumer.get();
+        throw new IllegalStateException("Pipeline stage terminated unexpectedly");
+      }
+    }
+  }
+
+  private static final class ExpandedBatch<S> {
+    final List<S> states;
+    final List<Collection<Choice<S>>> choices;
+
+    ExpandedBatch(List<S> states, List<Collection<Choice<S>>> choices) {
+      this.states = states;
+      this.choices = choices;
+    }
+  }
+
+  private static final class InternedBatch {
+    static final InternedBatch END = new InternedBatch(new int[0], List.of(), 0);
+
+    final int[] stateIds;
+    final List<List<Distribution>> distributions;
+    // Number of states with an assigned id after this batch was interned
+    final int stateCount;
+
+    @SuppressWarnings("PMD.ArrayIsStoredDirectly")
+    InternedBatch(int[] stateIds, List<List<Distribution>> distributions, int stateCount) {
+      this.stateIds = stateIds;
+      this.distributions = distributions;
+      this.stateCount = stateCount;
+    }
+  }
+
   public static <T extends Model> QuotientModel<T> buildQuotient(T model,
       Supplier<T> quotientModelConstructor, List<NatBitSet> equivalence) {
     T quotientModel = quotientModelConstructor.get();
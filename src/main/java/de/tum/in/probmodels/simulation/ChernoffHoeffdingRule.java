@@ -0,0 +1,43 @@
+package de.tum.in.probmodels.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stops after the fixed number of samples given by the Chernoff-Hoeffding bound, such that the
+ * estimate is within {@code epsilon} of the true value with probability at least
+ * {@code 1 - delta}.
+ */
+public final class ChernoffHoeffdingRule implements StoppingRule {
+  private final double epsilon;
+  private final long requiredSamples;
+
+  public ChernoffHoeffdingRule(double epsilon, double delta) {
+    checkArgument(0 < epsilon && epsilon < 1, "Invalid precision %s", epsilon);
+    checkArgument(0 < delta && delta < 1, "Invalid error probability %s", delta);
+    this.epsilon = epsilon;
+    this.requiredSamples = (long) Math.ceil(Math.log(2 / delta) / (2 * epsilon * epsilon));
+  }
+
+  public long requiredSamples() {
+    return requiredSamples;
+  }
+
+  public double epsilon() {
+    return epsilon;
+  }
+
+  @Override
+  public boolean isDone(long successes, long samples) {
+    return samples >= requiredSamples;
+  }
+
+  @Override
+  public long maximalSamples() {
+    return requiredSamples;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ChernoffHoeffding(%s, %d samples)", epsilon, requiredSamples);
+  }
+}
@@ -0,0 +1,131 @@
+package de.tum.in.probmodels.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Stops once the exact Clopper-Pearson confidence interval has at most the given half-width.
+ * Compared to {@link ChernoffHoeffdingRule}, this needs far fewer samples for probabilities close
+ * to 0 or 1. Since the interval is checked repeatedly, the confidence holds per check, not for
+ * the sequential procedure as a whole.
+ */
+public final class ClopperPearsonRule implements StoppingRule {
+  private static final int INVERSION_ITERATIONS = 60;
+
+  private final double halfWidth;
+  private final double confidence;
+
+  public ClopperPearsonRule(double halfWidth, double confidence) {
+    checkArgument(0 < halfWidth && halfWidth < 1, "Invalid half-width %s", halfWidth);
+    checkArgument(0 < confidence && confidence < 1, "Invalid confidence %s", confidence);
+    this.halfWidth = halfWidth;
+    this.confidence = confidence;
+  }
+
+  @Override
+  public boolean isDone(long successes, long samples) {
+    if (samples == 0) {
+      return false;
+    }
+    double[] interval = interval(successes, samples);
+    return interval[1] - interval[0] <= 2 * halfWidth;
+  }
+
+  /**
+   * @return the lower and upper bound of the confidence interval.
+   */
+  public double[] interval(long successes, long samples) {
+    return interval(successes, samples, confidence);
+  }
+
+  public static double[] interval(long successes, long samples, double confidence) {
+    checkArgument(0 <= successes && successes <= samples && samples > 0);
+    double alpha = 1 - confidence;
+    double lower = successes == 0
+        ? 0.0d : inverseBeta(alpha / 2, successes, samples - successes + 1);
+    double upper = successes == samples
+        ? 1.0d : inverseBeta(1 - alpha / 2, successes + 1, samples - successes);
+    return new double[] {lower, upper};
+  }
+
+  // The quantile of the Beta(a, b) distribution, by bisection on the distribution function
+  private static double inverseBeta(double p, double a, double b) {
+    double low = 0.0d;
+    double high = 1.0d;
+    for (int i = 0; i < INVERSION_ITERATIONS; i++) {
+      double mid = (low + high) / 2;
+      if (regularizedBeta(mid, a, b) < p) {
+        low = mid;
+      } else {
+        high = mid;
+      }
+    }
+    return (low + high) / 2;
+  }
+
+  // The regularized incomplete beta function I_x(a, b), evaluated by its continued fraction
+  private static double regularizedBeta(double x, double a, double b) {
+    if (x <= 0.0d) {
+      return 0.0d;
+    }
+    if (x >= 1.0d) {
+      return 1.0d;
+    }
+    double front = Math.exp(logGamma(a + b) - logGamma(a) - logGamma(b)
+        + a * Math.log(x) + b * Math.log1p(-x));
+    // The continued fraction converges quickly only below the mean
+    if (x < (a + 1) / (a + b + 2)) {
+      return front * betaContinuedFraction(x, a, b) / a;
+    }
+    return 1 - front * betaContinuedFraction(1 - x, b, a) / b;
+  }
+
+  // Modified Lentz's method
+  private static double betaContinuedFraction(double x, double a, double b) {
+    double tiny = 1e-300;
+    double c = 1.0d;
+    double d = 1 - (a + b) * x / (a + 1);
+    d = 1 / (Math.abs(d) < tiny ? tiny : d);
+    double result = d;
+    for (int m = 1; m <= 10_000; m++) {
+      int m2 = 2 * m;
+      double numerator = m * (b - m) * x / ((a + m2 - 1) * (a + m2));
+      d = 1 + numerator * d;
+      d = 1 / (Math.abs(d) < tiny ? tiny : d);
+      c = 1 + numerator / c;
+      c = Math.abs(c) < tiny ? tiny : c;
+      result *= d * c;
+
+      numerator = -(a + m) * (a + b + m) * x / ((a + m2) * (a + m2 + 1));
+      d = 1 + numerator * d;
+      d = 1 / (Math.abs(d) < tiny ? tiny : d);
+      c = 1 + numerator / c;
+      c = Math.abs(c) < tiny ? tiny : c;
+      double delta = d * c;
+      result *= delta;
+      if (Math.abs(delta - 1) < 1e-15) {
+        break;
+      }
+    }
+    return result;
+  }
+
+  // Lanczos approximation
+  private static double logGamma(double x) {
+    double[] coefficients = {76.18009172947146, -86.50532032941677, 24.01409824083091,
+        -1.231739572450155, 0.1208650973866179e-2, -0.5395239384953e-5};
+    double y = x;
+    double tmp = x + 5.5;
+    tmp -= (x + 0.5) * Math.log(tmp);
+    double series = 1.000000000190015;
+    for (double coefficient : coefficients) {
+      y += 1;
+      series += coefficient / y;
+    }
+    return -tmp + Math.log(2.5066282746310005 * series / x);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("ClopperPearson(%s, %s)", halfWidth, confidence);
+  }
+}
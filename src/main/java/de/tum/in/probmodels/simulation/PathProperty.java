@@ -0,0 +1,70 @@
+package de.tum.in.probmodels.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.function.Predicate;
+
+/**
+ * A step-bounded path property which can be decided on a finite simulated path. State predicates
+ * over PRISM states can be given as {@link de.tum.in.probmodels.util.PrismExpressionWrapper}.
+ */
+public final class PathProperty<S> {
+  private final Predicate<S> predicate;
+  private final boolean safety;
+  private final int bound;
+
+  private PathProperty(Predicate<S> predicate, boolean safety, int bound) {
+    checkArgument(bound >= 0, "Negative step bound %s", bound);
+    this.predicate = predicate;
+    this.safety = safety;
+    this.bound = bound;
+  }
+
+  /**
+   * Paths which reach a target state within the given number of steps.
+   */
+  public static <S> PathProperty<S> reach(Predicate<S> target, int bound) {
+    return new PathProperty<>(target, false, bound);
+  }
+
+  /**
+   * Paths which only visit safe states during the given number of steps. Paths ending early in a
+   * deadlock satisfy the property if all states until then are safe.
+   */
+  public static <S> PathProperty<S> safety(Predicate<S> safe, int bound) {
+    return new PathProperty<>(safe, true, bound);
+  }
+
+  public int bound() {
+    return bound;
+  }
+
+  /**
+   * @return whether the property is decided once the given state is visited, i.e. a target state
+   *     is reached or an unsafe state is visited.
+   */
+  boolean isDecidedBy(S state) {
+    return predicate.test(state) != safety;
+  }
+
+  /**
+   * @return the value of a path which visited the given state and was decided by it, see
+   *     {@link #isDecidedBy(Object)}.
+   */
+  boolean decidedValue() {
+    return !safety;
+  }
+
+  /**
+   * @return the value of a path which ended (after the bound or in a deadlock) without a deciding
+   *     state.
+   */
+  boolean undecidedValue() {
+    return safety;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s<=%d %s", safety ? "G" : "F", bound, predicate);
+  }
+}
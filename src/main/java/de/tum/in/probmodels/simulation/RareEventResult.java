@@ -0,0 +1,52 @@
+package de.tum.in.probmodels.simulation;
+
+/**
+ * The outcome of a rare-event simulation: a probability estimate together with its estimated
+ * relative error, i.e. the standard error divided by the estimate.
+ */
+public final class RareEventResult {
+  private final double estimate;
+  private final double relativeError;
+  private final long samples;
+  private final long steps;
+
+  RareEventResult(double estimate, double relativeError, long samples, long steps) {
+    this.estimate = estimate;
+    this.relativeError = relativeError;
+    this.samples = samples;
+    this.steps = steps;
+  }
+
+  public double estimate() {
+    return estimate;
+  }
+
+  /**
+   * @return the estimated relative error, or {@link Double#POSITIVE_INFINITY} if the event has
+   *     not been observed.
+   */
+  public double relativeError() {
+    return relativeError;
+  }
+
+  /**
+   * @return the number of simulated paths (importance sampling and fixed effort) or of
+   *     independent main trajectories (RESTART).
+   */
+  public long samples() {
+    return samples;
+  }
+
+  /**
+   * @return the total number of simulated steps.
+   */
+  public long steps() {
+    return steps;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%.6e (relative error %.4f, %d samples, %d steps)", estimate,
+        relativeError, samples, steps);
+  }
+}
@@ -0,0 +1,283 @@
+package de.tum.in.probmodels.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import de.tum.in.probmodels.model.Distribution;
+import de.tum.in.probmodels.model.Model;
+import de.tum.in.probmodels.util.Sample;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntList;
+import java.util.function.IntPredicate;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Estimates small probabilities of reaching a target before a stop state in an explicit model,
+ * where naive simulation would practically never observe the target. Three estimators are
+ * offered:
+ * <ul>
+ *   <li>importance sampling, which samples under a user-given change of measure through
+ *   {@link Distribution#sampleWeighted(Distribution.WeightFunction)} and weights each path by its
+ *   likelihood ratio,</li>
+ *   <li>fixed-effort splitting, which estimates the conditional probabilities of going from one
+ *   importance level to the next with a fixed number of paths per level, and</li>
+ *   <li>RESTART, which splits a trajectory into several retrials whenever it crosses a level
+ *   upwards and kills retrials falling below the level they were created at.</li>
+ * </ul>
+ *
+ * <p>Levels are given by an importance function and increasing thresholds: a state has level
+ * {@code k} if its importance is at least the {@code k}-th but below the {@code k+1}-th
+ * threshold. Target states should have the highest level. Non-deterministic choices are resolved
+ * uniformly at random. Paths without successors, or longer than the step bound, count as not
+ * reaching the target.</p>
+ */
+public class RareEventSimulator {
+  private final Model model;
+  private final IntPredicate target;
+  private final IntPredicate stop;
+  private final int maxSteps;
+  private final int[] initialStates;
+
+  /**
+   * @param stop states at which a path is considered to have failed, e.g. the initial state of a
+   *     regenerative model. Checked after the target.
+   * @param maxSteps the step bound of a single path, paths exceeding it count as failed.
+   */
+  public RareEventSimulator(Model model, IntPredicate target, IntPredicate stop, int maxSteps) {
+    checkArgument(maxSteps > 0, "Invalid step bound %s", maxSteps);
+    this.model = model;
+    this.target = target;
+    this.stop = stop;
+    this.maxSteps = maxSteps;
+    this.initialStates = model.getInitialStates().toIntArray();
+    checkArgument(initialStates.length > 0, "No initial states");
+  }
+
+  /**
+   * Importance sampling: successors are sampled with probability proportional to the given
+   * weights instead of their actual probability. A path reaching the target contributes the
+   * product of the ratios of actual and biased probabilities along it.
+   *
+   * @param bias the weight of a successor, given its actual probability. Must be positive for
+   *     all successors with positive probability.
+   */
+  public RareEventResult importanceSampling(Distribution.WeightFunction bias, long paths) {
+    checkArgument(paths > 1, "Need at least two paths, got %s", paths);
+    double sum = 0.0d;
+    double squareSum = 0.0d;
+    long steps = 0;
+    double[] weightSum = new double[1];
+
+    for (long path = 0; path < paths; path++) {
+      int state = sampleInitialState();
+      double likelihoodRatio = 1.0d;
+      for (int step = 0; ; step++) {
+        if (target.test(state)) {
+          sum += likelihoodRatio;
+          squareSum += likelihoodRatio * likelihoodRatio;
+          break;
+        }
+        if (stop.test(state) || step == maxSteps) {
+          break;
+        }
+        Distribution distribution = sampleChoice(state);
+        if (distribution == null) {
+          break;
+        }
+        int successor = distribution.sampleWeighted(bias);
+        if (successor == -1) {
+          break;
+        }
+
+        weightSum[0] = 0.0d;
+        distribution.forEach((s, p) -> weightSum[0] += bias.accept(s, p));
+        double probability = distribution.get(successor);
+        double biasedProbability = bias.accept(successor, probability) / weightSum[0];
+        likelihoodRatio *= probability / biasedProbability;
+        state = successor;
+        steps += 1;
+      }
+    }
+
+    double mean = sum / paths;
+    double variance = Math.max(0.0d, (squareSum - paths * mean * mean) / (paths - 1));
+    return new RareEventResult(mean, relativeError(mean, Math.sqrt(variance / paths)), paths,
+        steps);
+  }
+
+  /**
+   * Fixed-effort splitting: in stage {@code k}, {@code effort} paths start in states at which
+   * the previous stage entered level {@code k} (initially the initial states) and run until they
+   * exceed level {@code k} or fail. The estimate is the product of the success fractions of all
+   * stages, the last stage only counts target states as success.
+   */
+  public RareEventResult fixedEffortSplitting(IntToDoubleFunction importance,
+      double[] thresholds, int effort) {
+    checkThresholds(thresholds);
+    checkArgument(effort > 0, "Invalid effort %s", effort);
+    int levels = thresholds.length;
+
+    IntList entries = new IntArrayList(initialStates);
+    double estimate = 1.0d;
+    double squaredRelativeError = 0.0d;
+    long steps = 0;
+    long samples = 0;
+    for (int stage = 0; stage < levels; stage++) {
+      IntList nextEntries = new IntArrayList();
+      boolean lastStage = stage == levels - 1;
+      for (int path = 0; path < effort; path++) {
+        int state = entries.getInt(Sample.sample(entries.size()));
+        for (int step = 0; ; step++) {
+          if (target.test(state) || (!lastStage && level(importance, thresholds, state) > stage)) {
+            nextEntries.add(state);
+            break;
+          }
+          if (stop.test(state) || step == maxSteps) {
+            break;
+          }
+          int successor = sampleSuccessor(state);
+          if (successor == -1) {
+            break;
+          }
+          state = successor;
+          steps += 1;
+        }
+      }
+      samples += effort;
+
+      if (nextEntries.isEmpty()) {
+        return new RareEventResult(0.0d, Double.POSITIVE_INFINITY, samples, steps);
+      }
+      double fraction = (double) nextEntries.size() / effort;
+      estimate *= fraction;
+      // Treating the stages as independent
+      squaredRelativeError += (1 - fraction) / (effort * fraction);
+      entries = nextEntries;
+    }
+    return new RareEventResult(estimate, Math.sqrt(squaredRelativeError), samples, steps);
+  }
+
+  /**
+   * RESTART: whenever a trajectory enters level {@code k > 0} from below, {@code splits[k - 1] - 1}
+   * additional retrials are started in the current state. Retrials are killed when they fall
+   * below the level they were started at, the main trajectory of each run only ends in the target
+   * or when failing. Each target hit contributes the inverse of the product of all split factors.
+   * The relative error is estimated over the given number of independent runs.
+   *
+   * @param splits the split factors of the levels {@code 1} to {@code thresholds.length - 1}.
+   */
+  public RareEventResult restart(IntToDoubleFunction importance, double[] thresholds,
+      int[] splits, long runs) {
+    checkThresholds(thresholds);
+    checkArgument(splits.length == thresholds.length - 1,
+        "Need %s split factors, got %s", thresholds.length - 1, splits.length);
+    checkArgument(runs > 1, "Need at least two runs, got %s", runs);
+    double weight = 1.0d;
+    for (int split : splits) {
+      checkArgument(split > 0, "Invalid split factor %s", split);
+      weight /= split;
+    }
+
+    // Pending retrials as (state, creation level, current level, steps)
+    IntList retrials = new IntArrayList();
+    double sum = 0.0d;
+    double squareSum = 0.0d;
+    long steps = 0;
+    for (long run = 0; run < runs; run++) {
+      long hits = 0;
+      retrials.clear();
+      int initialState = sampleInitialState();
+      retrials.add(initialState);
+      retrials.add(0);
+      retrials.add(0);
+      retrials.add(0);
+
+      while (!retrials.isEmpty()) {
+        int size = retrials.size();
+        int state = retrials.getInt(size - 4);
+        int creationLevel = retrials.getInt(size - 3);
+        int level = retrials.getInt(size - 2);
+        int step = retrials.getInt(size - 1);
+        retrials.size(size - 4);
+
+        while (true) {
+          int stateLevel = level(importance, thresholds, state);
+          if (stateLevel < creationLevel) {
+            break;
+          }
+          // Split once for every level crossed upwards, also when jumping directly into the target
+          while (level < stateLevel && level < splits.length) {
+            level += 1;
+            for (int i = 1; i < splits[level - 1]; i++) {
+              retrials.add(state);
+              retrials.add(level);
+              retrials.add(level);
+              retrials.add(step);
+            }
+          }
+          level = Math.min(level, stateLevel);
+          if (target.test(state)) {
+            hits += 1;
+            break;
+          }
+          if (stop.test(state) || step == maxSteps) {
+            break;
+          }
+          int successor = sampleSuccessor(state);
+          if (successor == -1) {
+            break;
+          }
+          state = successor;
+          step += 1;
+          steps += 1;
+        }
+      }
+
+      double value = hits * weight;
+      sum += value;
+      squareSum += value * value;
+    }
+
+    double mean = sum / runs;
+    double variance = Math.max(0.0d, (squareSum - runs * mean * mean) / (runs - 1));
+    return new RareEventResult(mean, relativeError(mean, Math.sqrt(variance / runs)), runs,
+        steps);
+  }
+
+  private static void checkThresholds(double[] thresholds) {
+    checkArgument(thresholds.length > 0, "Need at least one threshold");
+    for (int i = 1; i < thresholds.length; i++) {
+      checkArgument(thresholds[i - 1] < thresholds[i], "Thresholds not increasing");
+    }
+  }
+
+  private static int level(IntToDoubleFunction importance, double[] thresholds, int state) {
+    double value = importance.applyAsDouble(state);
+    int level = 0;
+    while (level < thresholds.length && value >= thresholds[level]) {
+      level += 1;
+    }
+    return level;
+  }
+
+  private static double relativeError(double mean, double standardError) {
+    return mean == 0.0d ? Double.POSITIVE_INFINITY : standardError / mean;
+  }
+
+  private int sampleInitialState() {
+    return initialStates.length == 1
+        ? initialStates[0] : initialStates[Sample.sample(initialStates.length)];
+  }
+
+  private Distribution sampleChoice(int state) {
+    int choices = model.getNumChoices(state);
+    if (choices == 0) {
+      return null;
+    }
+    return model.getChoice(state, choices == 1 ? 0 : Sample.sample(choices));
+  }
+
+  private int sampleSuccessor(int state) {
+    Distribution distribution = sampleChoice(state);
+    return distribution == null || distribution.isEmpty() ? -1 : distribution.sample();
+  }
+}
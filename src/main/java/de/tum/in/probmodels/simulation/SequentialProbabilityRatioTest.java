@@ -0,0 +1,66 @@
+package de.tum.in.probmodels.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * Wald's sequential probability ratio test of whether the probability is at least
+ * {@code threshold}. The hypotheses {@code p >= threshold + indifference} and
+ * {@code p <= threshold - indifference} are distinguished with error probabilities at most
+ * {@code alpha} (wrongly rejecting the first) and {@code beta} (wrongly accepting the first).
+ */
+public final class SequentialProbabilityRatioTest implements StoppingRule {
+  private final double threshold;
+  // Per success and per failure: the summand of the log-likelihood ratio
+  private final double successRatio;
+  private final double failureRatio;
+  private final double acceptBound;
+  private final double rejectBound;
+
+  public SequentialProbabilityRatioTest(double threshold, double indifference, double alpha,
+      double beta) {
+    checkArgument(0 < indifference && indifference <= threshold && threshold + indifference <= 1,
+        "Invalid indifference region %s +- %s", threshold, indifference);
+    checkArgument(0 < alpha && alpha < 1 && 0 < beta && beta < 1,
+        "Invalid error probabilities %s, %s", alpha, beta);
+    double upper = threshold + indifference;
+    double lower = threshold - indifference;
+    this.threshold = threshold;
+    // Ratio of the likelihoods of the lower and the upper hypothesis
+    this.successRatio = Math.log(lower / upper);
+    this.failureRatio = Math.log((1 - lower) / (1 - upper));
+    this.acceptBound = Math.log(beta / (1 - alpha));
+    this.rejectBound = Math.log((1 - beta) / alpha);
+  }
+
+  private double logRatio(long successes, long samples) {
+    // Avoid 0 * -infinity for the boundary hypotheses
+    double ratio = 0.0d;
+    if (successes > 0) {
+      ratio += successes * successRatio;
+    }
+    if (samples > successes) {
+      ratio += (samples - successes) * failureRatio;
+    }
+    return ratio;
+  }
+
+  @Override
+  public boolean isDone(long successes, long samples) {
+    double ratio = logRatio(successes, samples);
+    return ratio <= acceptBound || ratio >= rejectBound;
+  }
+
+  /**
+   * @return whether the test concludes that the probability is at least the threshold.
+   */
+  public boolean accepts(long successes, long samples) {
+    checkState(isDone(successes, samples), "Test has not yet decided");
+    return logRatio(successes, samples) <= acceptBound;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("SPRT(>= %s)", threshold);
+  }
+}
@@ -0,0 +1,42 @@
+package de.tum.in.probmodels.simulation;
+
+/**
+ * The outcome of a statistical model checking run: the number of simulated paths and how many of
+ * them satisfied the property. Interval bounds or decisions are obtained from the used
+ * {@link StoppingRule}.
+ */
+public final class SimulationResult {
+  private final long successes;
+  private final long samples;
+  private final long steps;
+
+  SimulationResult(long successes, long samples, long steps) {
+    this.successes = successes;
+    this.samples = samples;
+    this.steps = steps;
+  }
+
+  public long successes() {
+    return successes;
+  }
+
+  public long samples() {
+    return samples;
+  }
+
+  /**
+   * @return the total number of simulated steps of all paths.
+   */
+  public long steps() {
+    return steps;
+  }
+
+  public double estimate() {
+    return samples == 0 ? Double.NaN : (double) successes / samples;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%d/%d (%.6f)", successes, samples, estimate());
+  }
+}
@@ -0,0 +1,196 @@
+package de.tum.in.probmodels.simulation;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import de.tum.in.probmodels.generator.Choice;
+import de.tum.in.probmodels.generator.Generator;
+import de.tum.in.probmodels.util.CancellationToken;
+import de.tum.in.probmodels.util.CancelledException;
+import it.unimi.dsi.fastutil.objects.Object2DoubleMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.annotation.Nullable;
+
+/**
+ * Estimates the probability of a {@link PathProperty} by simulating independent paths directly
+ * on a {@link Generator}, without building a model. Paths are simulated in batches on several
+ * threads, after each batch the {@link StoppingRule} decides whether to continue.
+ *
+ * <p>Each thread obtains its own generator from the given supplier, since generators (in
+ * particular those backed by a PRISM {@code ModelGenerator}) are usually not thread safe. For
+ * PRISM models, the supplier thus should create a fresh model generator for each call.</p>
+ *
+ * <p>Non-deterministic choices are resolved uniformly at random. Batch results are consumed in
+ * submission order, independent of which thread finishes first, so the stopping rule does not
+ * favour short paths.</p>
+ */
+public class StatisticalModelChecker<S> {
+  private static final Logger logger = Logger.getLogger(StatisticalModelChecker.class.getName());
+
+  private final Supplier<? extends Generator<S>> generators;
+  private final PathProperty<S> property;
+  private final int threads;
+  private final int batchSize;
+
+  public StatisticalModelChecker(Supplier<? extends Generator<S>> generators,
+      PathProperty<S> property, int threads, int batchSize) {
+    checkArgument(threads > 0, "Need at least one thread, got %s", threads);
+    checkArgument(batchSize > 0, "Invalid batch size %s", batchSize);
+    this.generators = generators;
+    this.property = property;
+    this.threads = threads;
+    this.batchSize = batchSize;
+  }
+
+  public SimulationResult check(StoppingRule rule) {
+    return check(rule, CancellationToken.none());
+  }
+
+  /**
+   * Simulates paths until the rule is satisfied.
+   *
+   * @throws CancelledException if the token is cancelled before, with the
+   *     {@link SimulationResult} of all batches completed so far as partial result.
+   */
+  public SimulationResult check(StoppingRule rule, CancellationToken cancellation) {
+    SplittableRandom seed = new SplittableRandom();
+    ThreadLocal<PathSimulator> simulators =
+        ThreadLocal.withInitial(() -> new PathSimulator(generators.get()));
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "smc-simulation");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long successes = 0;
+    long samples = 0;
+    long steps = 0;
+    long submitted = 0;
+    // Keep all threads busy, results are consumed in order
+    Queue<Future<long[]>> pending = new ArrayDeque<>();
+    try {
+      while (!rule.isDone(successes, samples)) {
+        if (cancellation.checkNow()) {
+          throw new CancelledException(new SimulationResult(successes, samples, steps));
+        }
+        while (pending.size() < 2 * threads && submitted < rule.maximalSamples()) {
+          int paths = (int) Math.min(batchSize, rule.maximalSamples() - submitted);
+          SplittableRandom random = seed.split();
+          pending.add(executor.submit(() -> simulators.get().simulate(paths, random)));
+          submitted += paths;
+        }
+        long[] batch = pending.remove().get();
+        successes += batch[0];
+        samples += batch[1];
+        steps += batch[2];
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted during simulation", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IllegalStateException(cause);
+    } finally {
+      executor.shutdownNow();
+    }
+
+    SimulationResult result = new SimulationResult(successes, samples, steps);
+    logger.log(Level.FINE, () -> String.format("SMC of %s with %s: %s", property, rule, result));
+    return result;
+  }
+
+  private final class PathSimulator {
+    private final Generator<S> generator;
+    private final List<S> initialStates;
+
+    PathSimulator(Generator<S> generator) {
+      this.generator = generator;
+      this.initialStates = new ArrayList<>(generator.initialStates());
+      checkArgument(!initialStates.isEmpty(), "No initial states");
+    }
+
+    // Returns successes, paths and steps
+    long[] simulate(int paths, SplittableRandom random) {
+      long successes = 0;
+      long steps = 0;
+      for (int i = 0; i < paths; i++) {
+        S state = initialStates.size() == 1
+            ? initialStates.get(0) : initialStates.get(random.nextInt(initialStates.size()));
+        boolean value = property.undecidedValue();
+        for (int step = 0; ; step++) {
+          if (property.isDecidedBy(state)) {
+            value = property.decidedValue();
+            break;
+          }
+          if (step == property.bound()) {
+            break;
+          }
+          S successor = sampleSuccessor(generator.choices(state), random);
+          if (successor == null) {
+            break;
+          }
+          state = successor;
+          steps += 1;
+        }
+        if (value) {
+          successes += 1;
+        }
+      }
+      return new long[] {successes, paths, steps};
+    }
+  }
+
+  @Nullable
+  private static <S> S sampleSuccessor(Collection<Choice<S>> choices, SplittableRandom random) {
+    if (choices.isEmpty()) {
+      return null;
+    }
+    Choice<S> choice;
+    if (choices.size() == 1) {
+      choice = choices.iterator().next();
+    } else {
+      Iterator<Choice<S>> iterator = choices.iterator();
+      for (int skip = random.nextInt(choices.size()); skip > 0; skip--) {
+        iterator.next();
+      }
+      choice = iterator.next();
+    }
+
+    Object2DoubleMap<S> transitions = choice.transitions();
+    // Transitions may be rates, so normalize
+    double sum = 0.0d;
+    for (Object2DoubleMap.Entry<S> entry : transitions.object2DoubleEntrySet()) {
+      sum += entry.getDoubleValue();
+    }
+    double sampledValue = random.nextDouble() * sum;
+    double partialSum = 0.0d;
+    S last = null;
+    for (Object2DoubleMap.Entry<S> entry : transitions.object2DoubleEntrySet()) {
+      partialSum += entry.getDoubleValue();
+      last = entry.getKey();
+      if (partialSum > sampledValue) {
+        return last;
+      }
+    }
+    // Rounding errors
+    return last;
+  }
+}
@@ -0,0 +1,17 @@
+package de.tum.in.probmodels.simulation;
+
+/**
+ * Decides after how many Bernoulli samples a statistical estimate is precise enough. Rules are
+ * queried after every batch of samples, so they may stop sequentially.
+ */
+public interface StoppingRule {
+  boolean isDone(long successes, long samples);
+
+  /**
+   * @return the number of samples after which the rule surely stops, or {@link Long#MAX_VALUE} if
+   *     there is no such bound. Used to avoid simulating more paths than required.
+   */
+  default long maximalSamples() {
+    return Long.MAX_VALUE;
+  }
+}
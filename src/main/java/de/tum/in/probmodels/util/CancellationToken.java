@@ -0,0 +1,128 @@
+package de.tum.in.probmodels.util;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import javax.annotation.Nullable;
+
+/**
+ * Cooperative cancellation of long-running computations. A token is cancelled either explicitly
+ * through {@link #cancel()}, once its deadline has passed, or once its parent is cancelled.
+ *
+ * <p>{@link #isCancelled()} is meant to be called in inner loops: it only reads the clock every
+ * {@value #CHECK_INTERVAL} calls, so a cancellation may be noticed slightly late. Use
+ * {@link #checkNow()} where calls are rare. Cancelling is thread safe, polling a single token from
+ * several threads is safe but may delay the detection of an expired deadline.</p>
+ */
+public final class CancellationToken {
+  private static final int CHECK_INTERVAL = 1024;
+  private static final CancellationToken NONE = new CancellationToken(null, Long.MAX_VALUE);
+
+  @Nullable
+  private final CancellationToken parent;
+  private final long deadline;
+  private volatile boolean cancelled = false;
+  private int callsSinceCheck = 0;
+
+  private CancellationToken(@Nullable CancellationToken parent, long deadline) {
+    this.parent = parent;
+    this.deadline = deadline;
+  }
+
+  /**
+   * A token which is never cancelled.
+   */
+  public static CancellationToken none() {
+    return NONE;
+  }
+
+  /**
+   * A token which is only cancelled explicitly.
+   */
+  public static CancellationToken create() {
+    return new CancellationToken(null, Long.MAX_VALUE);
+  }
+
+  /**
+   * A token which is cancelled once {@link System#currentTimeMillis()} reaches the given value.
+   */
+  public static CancellationToken withDeadline(long deadlineMillis) {
+    return new CancellationToken(null, deadlineMillis);
+  }
+
+  public static CancellationToken withTimeout(long timeoutMillis) {
+    checkArgument(timeoutMillis >= 0, "Negative timeout %s", timeoutMillis);
+    return withDeadline(saturatedDeadline(timeoutMillis));
+  }
+
+  /**
+   * A token which is cancelled if this token is cancelled or the given deadline has passed.
+   */
+  public CancellationToken withChildDeadline(long deadlineMillis) {
+    return new CancellationToken(this == NONE ? null : this, deadlineMillis); // NOPMD
+  }
+
+  private static long saturatedDeadline(long timeoutMillis) {
+    long now = System.currentTimeMillis();
+    return timeoutMillis > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + timeoutMillis;
+  }
+
+  public void cancel() {
+    checkState(this != NONE, "Cannot cancel the none token"); // NOPMD
+    cancelled = true;
+  }
+
+  /**
+   * Cheap cancellation check for inner loops, see the class documentation.
+   */
+  public boolean isCancelled() {
+    if (cancelled) {
+      return true;
+    }
+    if (this == NONE) { // NOPMD
+      return false;
+    }
+    callsSinceCheck += 1;
+    if (callsSinceCheck < CHECK_INTERVAL) {
+      return false;
+    }
+    callsSinceCheck = 0;
+    return checkNow();
+  }
+
+  /**
+   * Checks the cancellation state, always reading the clock.
+   */
+  public boolean checkNow() {
+    if (cancelled) {
+      return true;
+    }
+    if ((parent != null && parent.checkNow())
+        || (deadline != Long.MAX_VALUE && System.currentTimeMillis() >= deadline)) {
+      cancelled = true;
+    }
+    return cancelled;
+  }
+
+  /**
+   * @throws CancelledException if {@link #isCancelled()} returns true.
+   */
+  public void throwIfCancelled() {
+    if (isCancelled()) {
+      throw new CancelledException(null);
+    }
+  }
+
+  public long deadline() {
+    return parent == null ? deadline : Math.min(deadline, parent.deadline());
+  }
+
+  @Override
+  public String toString() {
+    if (this == NONE) { // NOPMD
+      return "CancellationToken(none)";
+    }
+    return String.format("CancellationToken(%s, deadline %d)",
+        cancelled ? "cancelled" : "active", deadline());
+  }
+}
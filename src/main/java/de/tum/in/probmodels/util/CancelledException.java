@@ -0,0 +1,23 @@
+package de.tum.in.probmodels.util;
+
+import javax.annotation.Nullable;
+
+/**
+ * Thrown when a computation notices that its {@link CancellationToken} has been cancelled. The
+ * computation may attach what it has computed so far, the type of this partial result is
+ * documented by the respective method.
+ */
+public class CancelledException extends RuntimeException {
+  @Nullable
+  private final transient Object partialResult;
+
+  public CancelledException(@Nullable Object partialResult) {
+    super("Computation cancelled");
+    this.partialResult = partialResult;
+  }
+
+  @Nullable
+  public Object getPartialResult() {
+    return partialResult;
+  }
+}
@@ -8,6 +8,7 @@ import it.unimi.dsi.fastutil.ints.IntList;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.function.DoubleSupplier;
 
 public final class Sample {
   private static final Random random = new Random();
@@ -112,4 +113,54 @@ public final class Sample {
   public static double sampleExponential(double lambda) {
     return Math.log(1-random.nextDouble())/(-lambda);
   }
+
+  /**
+   * Samples the sum of {@code count} independent exponentially distributed values with rate
+   * {@code lambda}, i.e. an Erlang distributed value, in constant time.
+   */
+  public static double sampleExponentialSum(double lambda, long count) {
+    return sampleExponentialSum(random::nextDouble, lambda, count);
+  }
+
+  /**
+   * As {@link #sampleExponentialSum(double, long)}, drawing uniform values in [0, 1) from the
+   * given source. This allows to use, e.g., a thread-local {@link java.util.SplittableRandom}.
+   */
+  public static double sampleExponentialSum(DoubleSupplier uniform, double lambda, long count) {
+    assert count >= 0;
+    if (count <= 8) {
+      double sum = 0.0d;
+      for (int i = 0; i < count; i++) {
+        sum += Math.log(1 - uniform.getAsDouble());
+      }
+      return sum / (-lambda);
+    }
+    return sampleGamma(uniform, count) / lambda;
+  }
+
+  // Marsaglia and Tsang's method for Gamma(shape, 1) with shape >= 1
+  private static double sampleGamma(DoubleSupplier uniform, double shape) {
+    double d = shape - 1.0d / 3.0d;
+    double c = 1.0d / Math.sqrt(9.0d * d);
+    while (true) {
+      double x;
+      double v;
+      do {
+        x = sampleStandardNormal(uniform);
+        v = 1.0d + c * x;
+      } while (v <= 0.0d);
+      v = v * v * v;
+      double u = uniform.getAsDouble();
+      if (u < 1.0d - 0.0331d * x * x * x * x
+          || Math.log(u) < 0.5d * x * x + d * (1.0d - v + Math.log(v))) {
+        return d * v;
+      }
+    }
+  }
+
+  // Box-Muller transform
+  private static double sampleStandardNormal(DoubleSupplier uniform) {
+    double radius = Math.sqrt(-2.0d * Math.log(1 - uniform.getAsDouble()));
+    return radius * Math.cos(2.0d * Math.PI * uniform.getAsDouble());
+  }
 }
@@ -0,0 +1,75 @@
+package de.tum.in.probmodels.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import parser.State;
+
+/**
+ * Binary serialization of generator states, used to persist state tables.
+ */
+public interface StateCodec<S> {
+  void write(DataOutput out, S state) throws IOException;
+
+  S read(DataInput in) throws IOException;
+
+
+  static StateCodec<State> prismStates() {
+    return PrismStateCodec.INSTANCE;
+  }
+
+  final class PrismStateCodec implements StateCodec<State> {
+    private static final PrismStateCodec INSTANCE = new PrismStateCodec();
+
+    private static final int INTEGER = 0;
+    private static final int BOOLEAN = 1;
+    private static final int DOUBLE = 2;
+
+    private PrismStateCodec() {
+      // Empty
+    }
+
+    @Override
+    public void write(DataOutput out, State state) throws IOException {
+      Object[] values = state.varValues;
+      VarInts.writeVarInt(out, values.length);
+      for (Object value : values) {
+        if (value instanceof Integer) {
+          out.writeByte(INTEGER);
+          out.writeInt((Integer) value);
+        } else if (value instanceof Boolean) {
+          out.writeByte(BOOLEAN);
+          out.writeBoolean((Boolean) value);
+        } else if (value instanceof Double) {
+          out.writeByte(DOUBLE);
+          out.writeDouble((Double) value);
+        } else {
+          throw new IOException("Unsupported variable value " + value + " in state " + state);
+        }
+      }
+    }
+
+    @Override
+    public State read(DataInput in) throws IOException {
+      int size = VarInts.readVarInt(in);
+      State state = new State(size);
+      for (int i = 0; i < size; i++) {
+        int type = in.readUnsignedByte();
+        switch (type) {
+          case INTEGER:
+            state.varValues[i] = in.readInt();
+            break;
+          case BOOLEAN:
+            state.varValues[i] = in.readBoolean();
+            break;
+          case DOUBLE:
+            state.varValues[i] = in.readDouble();
+            break;
+          default:
+            throw new IOException("Unknown value type " + type);
+        }
+      }
+      return state;
+    }
+  }
+}
@@ -0,0 +1,59 @@
+package de.tum.in.probmodels.util;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Variable-length encoding of non-negative integers (LEB128): seven bits per byte, the highest bit
+ * marks that more bytes follow. Small values, which dominate ids and counts, need a single byte.
+ */
+public final class VarInts {
+  private VarInts() {
+    // Empty
+  }
+
+  public static void writeVarInt(DataOutput out, int value) throws IOException {
+    assert value >= 0 : value;
+    int remaining = value;
+    while ((remaining & ~0x7F) != 0) {
+      out.writeByte((remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    out.writeByte(remaining);
+  }
+
+  public static void writeVarLong(DataOutput out, long value) throws IOException {
+    assert value >= 0L : value;
+    long remaining = value;
+    while ((remaining & ~0x7FL) != 0L) {
+      out.writeByte((int) (remaining & 0x7F) | 0x80);
+      remaining >>>= 7;
+    }
+    out.writeByte((int) remaining);
+  }
+
+  public static int readVarInt(DataInput in) throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+
+  public static long readVarLong(DataInput in) throws IOException {
+    long value = 0L;
+    for (int shift = 0; shift < 70; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (long) (b & 0x7F) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IOException("Malformed variable length integer");
+  }
+}